@@ -15,6 +15,7 @@ package gov.nist.hit.core.api.edi;
 import gov.nist.hit.core.edi.domain.EDITestContext;
 import gov.nist.hit.core.edi.repo.EDITestContextRepository;
 import gov.nist.hit.core.repo.TestCaseDocumentationRepository;
+import gov.nist.hit.core.service.edi.EDIResourceLoader;
 import gov.nist.hit.core.service.exception.DownloadDocumentException;
 
 import java.io.InputStream;
@@ -46,6 +47,9 @@ public class EDIDocumentationController {
   @Autowired
   protected EDITestContextRepository testContextRepository;
 
+  @Autowired
+  protected EDIResourceLoader resourceLoader;
+
   @RequestMapping(value = "/message", method = RequestMethod.POST,
       consumes = "application/x-www-form-urlencoded; charset=UTF-8")
   public String downloadMessage(@RequestParam("targetId") Long targetId,
@@ -78,15 +82,12 @@ public class EDIDocumentationController {
       HttpServletResponse response) {
     try {
       logger.info("Downloading Profile of element with id " + targetId);
-      InputStream content = null;
       EDITestContext testContext = testContextRepository.findOne(targetId);
-      String profile = testContext.getConformanceProfile().getJson();
-      content = IOUtils.toInputStream(profile, "UTF-8");
       response.setContentType("application/xml");
       targetTitle = targetTitle + "-" + "Profile.json";
       targetTitle = targetTitle.replaceAll(" ", "-");
       response.setHeader("Content-disposition", "attachment;filename=" + targetTitle);
-      FileCopyUtils.copy(content, response.getOutputStream());
+      resourceLoader.writeProfile(testContext, response.getOutputStream());
     } catch (Exception e) {
       logger.error(e.getMessage(), e);
       throw new DownloadDocumentException("Failed to download the conformance profile");
@@ -0,0 +1,63 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+
+package gov.nist.hit.core.api.edi;
+
+import gov.nist.hit.core.edi.domain.EDIWarmupStatus;
+import gov.nist.hit.core.service.edi.EDIMetrics;
+import gov.nist.hit.core.service.edi.EDIResourceWarmup;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Runtime state of the edi services
+ */
+@RequestMapping("/edi/monitoring")
+@RestController
+public class EDIMonitoringController {
+
+  @Autowired
+  private EDIResourceWarmup resourceWarmup;
+
+  @Autowired
+  private EDIMetrics metrics;
+
+  /**
+   * Progress of the startup warm-up. Answers 503 until the warm-up is completed so that it can be
+   * used as a readiness check.
+   */
+  @RequestMapping(value = "/warmup", method = RequestMethod.GET)
+  public EDIWarmupStatus warmup(HttpServletResponse response) {
+    EDIWarmupStatus status = resourceWarmup.getStatus();
+    if (!status.isReady()) {
+      response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    }
+    return status;
+  }
+
+  /**
+   * Latency timers, with percentiles, and counters of the parse and validation phases
+   */
+  @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+  public List<Map<String, Object>> metrics() {
+    return metrics.snapshot();
+  }
+
+}
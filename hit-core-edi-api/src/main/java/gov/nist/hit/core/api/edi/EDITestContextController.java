@@ -15,19 +15,37 @@ package gov.nist.hit.core.api.edi;
 import gov.nist.hit.core.api.TestContextController;
 import gov.nist.hit.core.domain.*;
 import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.edi.domain.EDIValidationJob;
+import gov.nist.hit.core.edi.domain.EditableMessageModel;
+import gov.nist.hit.core.edi.domain.LazyMessageModel;
+import gov.nist.hit.core.edi.domain.MessageEdit;
+import gov.nist.hit.core.edi.domain.MessageModelPatch;
 import gov.nist.hit.core.edi.repo.EDITestContextRepository;
 import gov.nist.hit.core.service.*;
+import gov.nist.hit.core.service.edi.EDIIncrementalParser;
+import gov.nist.hit.core.service.edi.EDIInterchangeService;
 import gov.nist.hit.core.service.edi.EDIMessageParser;
 import gov.nist.hit.core.service.edi.EDIMessageValidator;
+import gov.nist.hit.core.service.edi.EDIValidationJobService;
 import gov.nist.hit.core.service.edi.EDIValidationReportConverter;
+import gov.nist.hit.core.service.edi.ProfileJsonIndex;
+import gov.nist.hit.core.service.edi.ReportCache;
 import gov.nist.hit.core.service.exception.MessageParserException;
 import gov.nist.hit.core.service.exception.MessageValidationException;
 import gov.nist.hit.core.service.exception.TestCaseException;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import com.fasterxml.jackson.databind.JsonNode;
+
 /**
  * @author Harold Affo (NIST)
  * 
@@ -51,6 +69,17 @@ public class EDITestContextController extends TestContextController{
   @Autowired
   private EDIValidationReportConverter ediValidationReportConverter;
 
+  @Autowired
+  private EDIValidationJobService validationJobService;
+
+  @Autowired
+  private EDIInterchangeService interchangeService;
+
+  @Autowired
+  private EDIIncrementalParser incrementalParser;
+
+  @Autowired
+  private ProfileJsonIndex profileJsonIndex;
 
   @Override
   public MessageValidator getMessageValidator() {
@@ -71,4 +100,173 @@ public class EDITestContextController extends TestContextController{
   public ValidationReportConverter getValidatioReportConverter() {
     return ediValidationReportConverter;
   }
+
+  /**
+   * Validates the message and streams the json report to the response
+   */
+  @RequestMapping(value = "/{testContextId}/validateMessage/stream", method = RequestMethod.POST)
+  public void validateToStream(@PathVariable final Long testContextId,
+      @RequestBody final MessageValidationCommand command, HttpServletResponse response)
+      throws MessageValidationException, IOException {
+    TestContext testContext = getTestContext(testContextId);
+    if (testContext == null) {
+      throw new TestCaseException("No test context available with id=" + testContextId);
+    }
+    response.setContentType("application/json;charset=UTF-8");
+    messageValidator.validate(testContext, command, response.getOutputStream());
+  }
+
+  @RequestMapping(value = "/{testContextId}/validationJobs", method = RequestMethod.POST)
+  public EDIValidationJob submitValidation(@PathVariable final Long testContextId,
+      @RequestBody final MessageValidationCommand command) throws MessageValidationException {
+    TestContext testContext = getTestContext(testContextId);
+    if (testContext == null) {
+      throw new TestCaseException("No test context available with id=" + testContextId);
+    }
+    return validationJobService.submit(testContext, command);
+  }
+
+  @RequestMapping(value = "/validationJobs/{jobId}", method = RequestMethod.GET)
+  public EDIValidationJob validationJob(@PathVariable final String jobId,
+      @RequestParam(value = "wait", defaultValue = "0") final long wait)
+      throws MessageValidationException, InterruptedException {
+    EDIValidationJob job = validationJobService.get(jobId, wait);
+    if (job == null) {
+      throw new MessageValidationException("No validation job available with id=" + jobId);
+    }
+    return job;
+  }
+
+  /**
+   * Renders the report of a previous validation in the requested format (json, html or xml). The
+   * report id is returned with the validation result and in the X-Report-Id header of the
+   * transport validation.
+   */
+  @RequestMapping(value = "/reports/{reportId}/{format}", method = RequestMethod.GET)
+  public void report(@PathVariable final String reportId, @PathVariable final String format,
+      HttpServletResponse response) throws Exception {
+    if (!ReportCache.isFormat(format)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unsupported report format "
+          + format);
+      return;
+    }
+    ReportCache.RenderedReport report = messageValidator.getReportCache().get(reportId);
+    if (report == null) {
+      throw new MessageValidationException("No report available with id=" + reportId);
+    }
+    String contentType =
+        ReportCache.HTML.equals(format) ? "text/html" : ReportCache.XML.equals(format)
+            ? "application/xml" : "application/json";
+    response.setContentType(contentType + ";charset=UTF-8");
+    response.getWriter().write(report.render(format));
+  }
+
+  /**
+   * Parses the transactions of an interchange in parallel
+   */
+  @RequestMapping(value = "/{testContextId}/parseInterchange", method = RequestMethod.POST)
+  public MessageModel parseInterchange(@PathVariable final Long testContextId,
+      @RequestBody final MessageParserCommand command) throws MessageParserException {
+    TestContext testContext = getTestContext(testContextId);
+    if (testContext == null) {
+      throw new TestCaseException("No test context available with id=" + testContextId);
+    }
+    return interchangeService.parse(testContext, command);
+  }
+
+  /**
+   * Validates the transactions of an interchange in parallel and returns one report of the
+   * interchange
+   */
+  @RequestMapping(value = "/{testContextId}/validateInterchange", method = RequestMethod.POST)
+  public MessageValidationResult validateInterchange(@PathVariable final Long testContextId,
+      @RequestBody final MessageValidationCommand command) throws MessageValidationException {
+    TestContext testContext = getTestContext(testContextId);
+    if (testContext == null) {
+      throw new TestCaseException("No test context available with id=" + testContextId);
+    }
+    return interchangeService.validate(testContext, command);
+  }
+
+  /**
+   * Parses the message and returns its segments, see {@link #expandSegment(String, String)}
+   */
+  @RequestMapping(value = "/{testContextId}/parseMessage/lazy", method = RequestMethod.POST)
+  public LazyMessageModel parseSkeleton(@PathVariable final Long testContextId,
+      @RequestBody final MessageParserCommand command) throws MessageParserException {
+    TestContext testContext = getTestContext(testContextId);
+    if (testContext == null) {
+      throw new TestCaseException("No test context available with id=" + testContextId);
+    }
+    return messageParser.parseSkeleton(testContext, command);
+  }
+
+  @RequestMapping(value = "/parsedMessages/{parseId}/segments/{nodeId}",
+      method = RequestMethod.GET)
+  public List<MessageElement> expandSegment(@PathVariable final String parseId,
+      @PathVariable final String nodeId) throws MessageParserException {
+    return messageParser.expand(parseId, nodeId);
+  }
+
+  /**
+   * Parses the message and opens an edit session, see {@link #editMessage(String, MessageEdit)}
+   */
+  @RequestMapping(value = "/{testContextId}/parseMessage/editable", method = RequestMethod.POST)
+  public EditableMessageModel parseEditable(@PathVariable final Long testContextId,
+      @RequestBody final MessageParserCommand command) throws MessageParserException {
+    TestContext testContext = getTestContext(testContextId);
+    if (testContext == null) {
+      throw new TestCaseException("No test context available with id=" + testContextId);
+    }
+    return incrementalParser.parse(testContext, command);
+  }
+
+  /**
+   * Applies an edit to the message of the session and returns the changes of its model
+   */
+  @RequestMapping(value = "/editSessions/{parseId}/edits", method = RequestMethod.POST)
+  public MessageModelPatch editMessage(@PathVariable final String parseId,
+      @RequestBody final MessageEdit edit) throws MessageParserException {
+    return incrementalParser.edit(parseId, edit);
+  }
+
+  @RequestMapping(value = "/editSessions/{parseId}", method = RequestMethod.DELETE)
+  public void closeEditSession(@PathVariable final String parseId) {
+    incrementalParser.close(parseId);
+  }
+
+  /**
+   * Returns the message structure of the conformance profile, without the segments and datatypes
+   */
+  @RequestMapping(value = "/{testContextId}/profile/skeleton", method = RequestMethod.GET)
+  public JsonNode profileSkeleton(@PathVariable final Long testContextId) throws IOException {
+    JsonNode skeleton = profileJsonIndex.skeleton(testContextId);
+    if (skeleton == null) {
+      throw new TestCaseException("No conformance profile available for test context id="
+          + testContextId);
+    }
+    return skeleton;
+  }
+
+  @RequestMapping(value = "/{testContextId}/profile/segments/{segmentId:.+}",
+      method = RequestMethod.GET)
+  public JsonNode profileSegment(@PathVariable final Long testContextId,
+      @PathVariable final String segmentId) throws IOException {
+    JsonNode segment = profileJsonIndex.segment(testContextId, segmentId);
+    if (segment == null) {
+      throw new TestCaseException("No segment available with id=" + segmentId);
+    }
+    return segment;
+  }
+
+  @RequestMapping(value = "/{testContextId}/profile/datatypes/{datatypeId:.+}",
+      method = RequestMethod.GET)
+  public JsonNode profileDatatype(@PathVariable final Long testContextId,
+      @PathVariable final String datatypeId) throws IOException {
+    JsonNode datatype = profileJsonIndex.datatype(testContextId, datatypeId);
+    if (datatype == null) {
+      throw new TestCaseException("No datatype available with id=" + datatypeId);
+    }
+    return datatype;
+  }
 }
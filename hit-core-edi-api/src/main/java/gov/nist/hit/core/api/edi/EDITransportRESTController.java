@@ -16,17 +16,25 @@ import gov.nist.hit.core.domain.MessageModel;
 import gov.nist.hit.core.domain.MessageParserCommand;
 import gov.nist.hit.core.domain.MessageValidationCommand;
 import gov.nist.hit.core.domain.MessageValidationResult;
+import gov.nist.hit.core.edi.domain.EDIMessageValidationResult;
 import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.edi.domain.EDIValidationJob;
 import gov.nist.hit.core.edi.repo.EDITestContextRepository;
 import gov.nist.hit.core.repo.TestContextRepository;
+import gov.nist.hit.core.service.edi.EDIBulkValidationService;
 import gov.nist.hit.core.service.edi.EDIMessageParser;
 import gov.nist.hit.core.service.edi.EDIMessageValidator;
+import gov.nist.hit.core.service.edi.EDIValidationJobService;
 import gov.nist.hit.core.service.exception.MessageParserException;
 import gov.nist.hit.core.service.exception.MessageValidationException;
 import gov.nist.hit.core.service.exception.TestCaseException;
 
+import java.io.IOException;
 import java.util.List;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -34,7 +42,9 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
 
 /**
  * @author Harold Affo (NIST)
@@ -47,6 +57,8 @@ public class EDITransportRESTController {
 
   Logger logger = LoggerFactory.getLogger(EDITransportRESTController.class);
 
+  static final String REPORT_ID_HEADER = "X-Report-Id";
+
   @Autowired
   protected EDITestContextRepository testContextRepository;
 
@@ -56,6 +68,12 @@ public class EDITransportRESTController {
   @Autowired
   protected EDIMessageValidator messageValidator;
 
+  @Autowired
+  protected EDIValidationJobService validationJobService;
+
+  @Autowired
+  protected EDIBulkValidationService bulkValidationService;
+
   @RequestMapping(value = "/initUser")
   public EDITestContext testContext(@PathVariable final Long testContextId) {
     logger.info("Fetching testContext with id=" + testContextId);
@@ -77,9 +95,15 @@ public class EDITransportRESTController {
 
   @RequestMapping(value = "/{testContextId}/validateMessage", method = RequestMethod.POST)
   public MessageValidationResult validate(@PathVariable final Long testContextId,
-      @RequestBody final MessageValidationCommand command) throws MessageValidationException {
+      @RequestBody final MessageValidationCommand command, HttpServletResponse response)
+      throws MessageValidationException {
     try {
-      return messageValidator.validate(testContext(testContextId), command);
+      MessageValidationResult result =
+          messageValidator.validate(testContext(testContextId), command);
+      if (result instanceof EDIMessageValidationResult) {
+        response.setHeader(REPORT_ID_HEADER, ((EDIMessageValidationResult) result).getReportId());
+      }
+      return result;
     } catch (MessageValidationException e) {
       throw new MessageValidationException(e.getMessage());
     } catch (Exception e) {
@@ -87,6 +111,69 @@ public class EDITransportRESTController {
     }
   }
 
+  /**
+   * Validates the message and streams the json report to the response
+   */
+  @RequestMapping(value = "/{testContextId}/validateMessage/stream", method = RequestMethod.POST)
+  public void validateToStream(@PathVariable final Long testContextId,
+      @RequestBody final MessageValidationCommand command, HttpServletResponse response)
+      throws MessageValidationException, IOException {
+    EDITestContext testContext = testContext(testContextId);
+    response.setContentType("application/json;charset=UTF-8");
+    messageValidator.validate(testContext, command, response.getOutputStream());
+  }
+
+  @RequestMapping(value = "/{testContextId}/validationJobs", method = RequestMethod.POST)
+  public EDIValidationJob submitValidation(@PathVariable final Long testContextId,
+      @RequestBody final MessageValidationCommand command) throws MessageValidationException {
+    logger.info("Submitting validation job");
+    return validationJobService.submit(testContext(testContextId), command);
+  }
+
+  @RequestMapping(value = "/validationJobs/{jobId}", method = RequestMethod.GET)
+  public EDIValidationJob validationJob(@PathVariable final String jobId,
+      @RequestParam(value = "wait", defaultValue = "0") final long wait)
+      throws MessageValidationException, InterruptedException {
+    EDIValidationJob job = validationJobService.get(jobId, wait);
+    if (job == null) {
+      throw new MessageValidationException("No validation job available with id=" + jobId);
+    }
+    return job;
+  }
+
+  /**
+   * Validates newline delimited json messages and streams one json result line per message
+   */
+  @RequestMapping(value = "/{testContextId}/validateMessages", method = RequestMethod.POST,
+      consumes = "application/x-ndjson")
+  public void validateAll(@PathVariable final Long testContextId,
+      @RequestParam(value = "contextType", defaultValue = "Free") final String contextType,
+      HttpServletRequest request, HttpServletResponse response) throws IOException,
+      InterruptedException, MessageValidationException {
+    EDITestContext testContext = testContext(testContextId);
+    logger.info("Bulk validation of messages against test context " + testContextId);
+    response.setContentType("application/x-ndjson");
+    bulkValidationService.validate(testContext,
+        bulkValidationService.ndjson(request.getInputStream(), contextType),
+        response.getOutputStream());
+  }
 
+  /**
+   * Validates every file of a zip archive and streams one json result line per file
+   */
+  @RequestMapping(value = "/{testContextId}/validateMessages", method = RequestMethod.POST,
+      consumes = "multipart/form-data")
+  public void validateArchive(@PathVariable final Long testContextId,
+      @RequestParam("file") MultipartFile file,
+      @RequestParam(value = "contextType", defaultValue = "Free") final String contextType,
+      HttpServletResponse response) throws IOException, InterruptedException,
+      MessageValidationException {
+    EDITestContext testContext = testContext(testContextId);
+    logger.info("Bulk validation of archive " + file.getOriginalFilename()
+        + " against test context " + testContextId);
+    response.setContentType("application/x-ndjson");
+    bulkValidationService.validate(testContext,
+        bulkValidationService.zip(file.getInputStream(), contextType), response.getOutputStream());
+  }
 
 }
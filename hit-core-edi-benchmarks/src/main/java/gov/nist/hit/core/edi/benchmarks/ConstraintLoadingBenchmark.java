@@ -0,0 +1,89 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.edi.benchmarks;
+
+import gov.nist.hit.core.domain.Constraints;
+import gov.nist.hit.core.service.edi.BoundedCache;
+import gov.nist.hit.core.service.edi.ConformanceContextCache;
+import hl7.v2.validation.content.ConformanceContext;
+import hl7.v2.validation.content.DefaultConformanceContext;
+import hl7.v2.validation.vs.ValueSetLibrary;
+import hl7.v2.validation.vs.ValueSetLibraryImpl;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading of the constraints and of the value set library, without (cold) and with (warm) the
+ * validation caches
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConstraintLoadingBenchmark {
+
+  private ConformanceContextCache cache;
+  private Constraints constraints;
+  private BoundedCache.Loader<String, ConformanceContext> loader;
+
+  @Setup
+  public void setup(final Fixtures fixtures) throws Exception {
+    cache = new ConformanceContextCache(ConformanceContextCache.DEFAULT_MAX_SIZE);
+    constraints = fixtures.testContext().getConstraints();
+    loader = new BoundedCache.Loader<String, ConformanceContext>() {
+      @Override
+      public ConformanceContext load(String key) throws Exception {
+        return conformanceContext(fixtures);
+      }
+    };
+    cache.get(constraints, null, loader);
+  }
+
+  @Benchmark
+  public ConformanceContext constraintsCold(Fixtures fixtures) {
+    return conformanceContext(fixtures);
+  }
+
+  @Benchmark
+  public ConformanceContext constraintsWarm() throws Exception {
+    return cache.get(constraints, null, loader);
+  }
+
+  @Benchmark
+  public ValueSetLibrary valueSetLibraryCold(Fixtures fixtures) {
+    return ValueSetLibraryImpl.apply(IOUtils.toInputStream(fixtures.valueSetsXml)).get();
+  }
+
+  private static ConformanceContext conformanceContext(Fixtures fixtures) {
+    List<InputStream> streams = new ArrayList<InputStream>();
+    streams.add(IOUtils.toInputStream(fixtures.constraintsXml));
+    return DefaultConformanceContext.apply(streams).get();
+  }
+
+}
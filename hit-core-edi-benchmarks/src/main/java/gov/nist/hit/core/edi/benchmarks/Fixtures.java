@@ -0,0 +1,108 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.edi.benchmarks;
+
+import gov.nist.hit.core.domain.ConformanceProfile;
+import gov.nist.hit.core.domain.Constraints;
+import gov.nist.hit.core.domain.MessageParserCommand;
+import gov.nist.hit.core.domain.MessageValidationCommand;
+import gov.nist.hit.core.domain.VocabularyLibrary;
+import gov.nist.hit.core.edi.domain.EDITestContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark inputs, read from the classpath. The defaults are the NCPDP SCRIPT NEWRX fixtures of
+ * hit-core-edi-repo, other fixtures can be selected with -p profile=... -p message=... etc.
+ */
+@State(Scope.Benchmark)
+public class Fixtures {
+
+  @Param({"/profiles/NCPDP_SCRIPT_NEWRX_Profile.xml"})
+  public String profile;
+
+  @Param({"9a6c2f10-4d3b-4e8a-b1f7-2c5e8d0a6b93"})
+  public String messageId;
+
+  @Param({"/constraints/NCPDP_SCRIPT_NEWRX_Constraints.xml"})
+  public String constraints;
+
+  @Param({"/tables/NCPDP_SCRIPT_ValueSetLibrary.xml"})
+  public String valueSets;
+
+  @Param({"/messages/NEWRX.txt"})
+  public String message;
+
+  @Param({"Free"})
+  public String contextType;
+
+  public String profileXml;
+  public String constraintsXml;
+  public String valueSetsXml;
+  public String messageContent;
+
+  @Setup
+  public void load() throws IOException {
+    profileXml = read(profile);
+    constraintsXml = read(constraints);
+    valueSetsXml = read(valueSets);
+    messageContent = read(message);
+  }
+
+  public EDITestContext testContext() {
+    ConformanceProfile conformanceProfile = new ConformanceProfile();
+    conformanceProfile.setXml(profileXml);
+    conformanceProfile.setSourceId(messageId);
+    Constraints c = new Constraints();
+    c.setXml(constraintsXml);
+    VocabularyLibrary vocabularyLibrary = new VocabularyLibrary();
+    vocabularyLibrary.setXml(valueSetsXml);
+    EDITestContext testContext = new EDITestContext();
+    testContext.setConformanceProfile(conformanceProfile);
+    testContext.setConstraints(c);
+    testContext.setVocabularyLibrary(vocabularyLibrary);
+    return testContext;
+  }
+
+  public MessageParserCommand parserCommand() {
+    MessageParserCommand command = new MessageParserCommand();
+    command.setContent(messageContent);
+    return command;
+  }
+
+  public MessageValidationCommand validationCommand() {
+    MessageValidationCommand command = new MessageValidationCommand();
+    command.setContent(messageContent);
+    command.setContextType(contextType);
+    return command;
+  }
+
+  private static String read(String resource) throws IOException {
+    InputStream in = Fixtures.class.getResourceAsStream(resource);
+    if (in == null) {
+      throw new IOException("Fixture not found on the classpath: " + resource);
+    }
+    try {
+      return IOUtils.toString(in, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+}
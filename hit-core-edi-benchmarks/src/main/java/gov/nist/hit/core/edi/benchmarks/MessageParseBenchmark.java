@@ -0,0 +1,78 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.edi.benchmarks;
+
+import gov.nist.hit.core.domain.MessageModel;
+import gov.nist.hit.core.domain.MessageParserCommand;
+import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.service.edi.CompiledProfileCache;
+import gov.nist.hit.core.service.edi.EDIMessageParser;
+import gov.nist.hit.core.service.edi.EDIMessageParserImpl;
+import gov.nist.hit.core.service.edi.JParser;
+import hl7.v2.instance.Message;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Message parsing with a warm profile cache. The difference between {@link #parse} and
+ * {@link #jparse} is the cost of the conversion of the message instance to a {@link MessageModel}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageParseBenchmark {
+
+  private EDIMessageParser parser;
+  private EDITestContext testContext;
+  private MessageParserCommand command;
+  private hl7.v2.profile.Message model;
+
+  @Setup
+  public void setup(Fixtures fixtures) throws Exception {
+    CompiledProfileCache cache = new CompiledProfileCache(CompiledProfileCache.DEFAULT_MAX_SIZE);
+    parser = new EDIMessageParserImpl();
+    parser.setProfileCache(cache);
+    testContext = fixtures.testContext();
+    command = fixtures.parserCommand();
+    model = cache.getProfile(fixtures.profileXml).messages().apply(fixtures.messageId);
+    MessageModel parsed = parser.parse(testContext, command);
+    if (parsed == null || parsed.getElements() == null || parsed.getElements().isEmpty()) {
+      throw new IllegalStateException("The message fixture " + fixtures.message
+          + " does not parse against the profile fixture " + fixtures.profile);
+    }
+  }
+
+  @Benchmark
+  public Message jparse(Fixtures fixtures) throws Exception {
+    return new JParser().jparse(fixtures.messageContent, model);
+  }
+
+  @Benchmark
+  public MessageModel parse() throws Exception {
+    return parser.parse(testContext, command);
+  }
+
+}
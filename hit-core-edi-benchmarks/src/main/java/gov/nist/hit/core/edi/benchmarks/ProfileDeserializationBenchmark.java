@@ -0,0 +1,61 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.edi.benchmarks;
+
+import gov.nist.hit.core.service.edi.CompiledProfileCache;
+import hl7.v2.profile.Profile;
+import ncpdp.script.profile.XMLDeserializer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Integration profile deserialization, without (cold) and with (warm) the compiled profile cache
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProfileDeserializationBenchmark {
+
+  private CompiledProfileCache cache;
+
+  @Setup
+  public void setup(Fixtures fixtures) throws Exception {
+    cache = new CompiledProfileCache(CompiledProfileCache.DEFAULT_MAX_SIZE);
+    cache.getProfile(fixtures.profileXml);
+  }
+
+  @Benchmark
+  public Profile cold(Fixtures fixtures) {
+    return XMLDeserializer.deserialize(IOUtils.toInputStream(fixtures.profileXml)).get();
+  }
+
+  @Benchmark
+  public Profile warm(Fixtures fixtures) throws Exception {
+    return cache.getProfile(fixtures.profileXml);
+  }
+
+}
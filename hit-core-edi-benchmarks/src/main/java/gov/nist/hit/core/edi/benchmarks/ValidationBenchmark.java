@@ -0,0 +1,101 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.edi.benchmarks;
+
+import gov.nist.healthcare.unified.model.EnhancedReport;
+import gov.nist.hit.core.domain.MessageValidationCommand;
+import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.service.edi.CompiledProfileCache;
+import gov.nist.hit.core.service.edi.ConformanceContextCache;
+import gov.nist.hit.core.service.edi.EDIMessageValidator;
+import gov.nist.hit.core.service.edi.EDIMessageValidatorImpl;
+import gov.nist.hit.core.service.edi.ValueSetLibraryCache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end validation of a message, with empty (cold) and loaded (warm) validation caches
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+  private EDIMessageValidator warmValidator;
+  private EDITestContext testContext;
+  private MessageValidationCommand command;
+
+  @Setup
+  public void setup(Fixtures fixtures) throws Exception {
+    testContext = fixtures.testContext();
+    command = fixtures.validationCommand();
+    warmValidator = validator();
+    warmValidator.loadResources(testContext);
+  }
+
+  /**
+   * A validator whose caches are emptied before each invocation
+   */
+  @State(Scope.Thread)
+  public static class ColdValidator {
+
+    private EDIMessageValidator validator;
+
+    @Setup
+    public void setup() {
+      validator = validator();
+    }
+
+    @Setup(Level.Invocation)
+    public void clearCaches() {
+      validator.getProfileCache().invalidateAll();
+      validator.getConformanceContextCache().invalidateAll();
+      validator.getValueSetLibraryCache().invalidateAll();
+    }
+  }
+
+  @Benchmark
+  public EnhancedReport cold(ColdValidator cold) throws Exception {
+    return cold.validator.generateReport(testContext, command);
+  }
+
+  @Benchmark
+  public EnhancedReport warm() throws Exception {
+    return warmValidator.generateReport(testContext, command);
+  }
+
+  private static EDIMessageValidator validator() {
+    EDIMessageValidator validator = new EDIMessageValidatorImpl();
+    validator.setProfileCache(new CompiledProfileCache(CompiledProfileCache.DEFAULT_MAX_SIZE));
+    validator.setConformanceContextCache(new ConformanceContextCache(
+        ConformanceContextCache.DEFAULT_MAX_SIZE));
+    validator.setValueSetLibraryCache(new ValueSetLibraryCache(
+        ValueSetLibraryCache.DEFAULT_MAX_SIZE));
+    return validator;
+  }
+
+}
@@ -0,0 +1,29 @@
+package gov.nist.hit.core.edi.domain;
+
+import gov.nist.hit.core.domain.MessageValidationResult;
+
+/**
+ * Validation result with the id of its report, to render the report in other formats later
+ */
+public class EDIMessageValidationResult extends MessageValidationResult {
+
+  private static final long serialVersionUID = 1L;
+
+  protected String reportId;
+
+  public EDIMessageValidationResult() {}
+
+  public EDIMessageValidationResult(String json, String html, String reportId) {
+    super(json, html);
+    this.reportId = reportId;
+  }
+
+  public String getReportId() {
+    return reportId;
+  }
+
+  public void setReportId(String reportId) {
+    this.reportId = reportId;
+  }
+
+}
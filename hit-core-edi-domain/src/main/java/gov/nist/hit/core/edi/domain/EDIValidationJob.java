@@ -0,0 +1,104 @@
+package gov.nist.hit.core.edi.domain;
+
+import gov.nist.hit.core.domain.MessageValidationResult;
+
+import java.io.Serializable;
+
+/**
+ * State of a validation submitted for asynchronous processing
+ */
+public class EDIValidationJob implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public enum Status {
+    PENDING, RUNNING, COMPLETED, FAILED
+  }
+
+  protected String id;
+  protected Long testContextId;
+  protected Status status;
+  protected long submittedAt;
+  protected Long startedAt;
+  protected Long completedAt;
+  protected MessageValidationResult result;
+  protected String error;
+
+  public EDIValidationJob() {}
+
+  public EDIValidationJob(String id, Long testContextId) {
+    this.id = id;
+    this.testContextId = testContextId;
+    this.status = Status.PENDING;
+    this.submittedAt = System.currentTimeMillis();
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public void setId(String id) {
+    this.id = id;
+  }
+
+  public Long getTestContextId() {
+    return testContextId;
+  }
+
+  public void setTestContextId(Long testContextId) {
+    this.testContextId = testContextId;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  public void setStatus(Status status) {
+    this.status = status;
+  }
+
+  public long getSubmittedAt() {
+    return submittedAt;
+  }
+
+  public void setSubmittedAt(long submittedAt) {
+    this.submittedAt = submittedAt;
+  }
+
+  public Long getStartedAt() {
+    return startedAt;
+  }
+
+  public void setStartedAt(Long startedAt) {
+    this.startedAt = startedAt;
+  }
+
+  public Long getCompletedAt() {
+    return completedAt;
+  }
+
+  public void setCompletedAt(Long completedAt) {
+    this.completedAt = completedAt;
+  }
+
+  public MessageValidationResult getResult() {
+    return result;
+  }
+
+  public void setResult(MessageValidationResult result) {
+    this.result = result;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public void setError(String error) {
+    this.error = error;
+  }
+
+  public boolean isDone() {
+    return status == Status.COMPLETED || status == Status.FAILED;
+  }
+
+}
@@ -0,0 +1,84 @@
+package gov.nist.hit.core.edi.domain;
+
+import java.io.Serializable;
+
+/**
+ * Progress of the startup loading of the test contexts resources
+ */
+public class EDIWarmupStatus implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public enum State {
+    DISABLED, PENDING, RUNNING, COMPLETED
+  }
+
+  protected State state;
+  protected int total;
+  protected int loaded;
+  protected int failed;
+  protected Long startedAt;
+  protected Long completedAt;
+
+  public EDIWarmupStatus() {}
+
+  public State getState() {
+    return state;
+  }
+
+  public void setState(State state) {
+    this.state = state;
+  }
+
+  public int getTotal() {
+    return total;
+  }
+
+  public void setTotal(int total) {
+    this.total = total;
+  }
+
+  public int getLoaded() {
+    return loaded;
+  }
+
+  public void setLoaded(int loaded) {
+    this.loaded = loaded;
+  }
+
+  public int getFailed() {
+    return failed;
+  }
+
+  public void setFailed(int failed) {
+    this.failed = failed;
+  }
+
+  public Long getStartedAt() {
+    return startedAt;
+  }
+
+  public void setStartedAt(Long startedAt) {
+    this.startedAt = startedAt;
+  }
+
+  public Long getCompletedAt() {
+    return completedAt;
+  }
+
+  public void setCompletedAt(Long completedAt) {
+    this.completedAt = completedAt;
+  }
+
+  public Long getElapsedMillis() {
+    if (startedAt == null) {
+      return null;
+    }
+    return (completedAt != null ? completedAt : System.currentTimeMillis()) - startedAt;
+  }
+
+  public boolean isReady() {
+    return state == State.DISABLED || state == State.COMPLETED;
+  }
+
+}
@@ -0,0 +1,37 @@
+package gov.nist.hit.core.edi.domain;
+
+import gov.nist.hit.core.domain.MessageElement;
+import gov.nist.hit.core.domain.MessageModel;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Message model of an edit session. Edits of the message are posted with the parse id and return a
+ * {@link MessageModelPatch} against the previous model.
+ */
+public class EditableMessageModel extends MessageModel {
+
+  private static final long serialVersionUID = 1L;
+
+  protected String parseId;
+
+  public EditableMessageModel() {
+    super();
+  }
+
+  public EditableMessageModel(List<MessageElement> elements, Map<String, String> delimeters,
+      String parseId) {
+    super(elements, delimeters);
+    this.parseId = parseId;
+  }
+
+  public String getParseId() {
+    return parseId;
+  }
+
+  public void setParseId(String parseId) {
+    this.parseId = parseId;
+  }
+
+}
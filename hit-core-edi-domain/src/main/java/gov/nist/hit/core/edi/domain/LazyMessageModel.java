@@ -0,0 +1,37 @@
+package gov.nist.hit.core.edi.domain;
+
+import gov.nist.hit.core.domain.MessageElement;
+import gov.nist.hit.core.domain.MessageModel;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segment level skeleton of a parsed message. The fields of a segment are expanded on demand
+ * using the parse id and the node id of the segment.
+ */
+public class LazyMessageModel extends MessageModel {
+
+  private static final long serialVersionUID = 1L;
+
+  protected String parseId;
+
+  public LazyMessageModel() {
+    super();
+  }
+
+  public LazyMessageModel(List<MessageElement> elements, Map<String, String> delimeters,
+      String parseId) {
+    super(elements, delimeters);
+    this.parseId = parseId;
+  }
+
+  public String getParseId() {
+    return parseId;
+  }
+
+  public void setParseId(String parseId) {
+    this.parseId = parseId;
+  }
+
+}
@@ -0,0 +1,71 @@
+package gov.nist.hit.core.edi.domain;
+
+import gov.nist.hit.core.domain.MessageElement;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Field, component or sub-component holding its value in its own data. The "value" child element
+ * is only created when the element is serialized, so the json keeps the shape clients read.
+ */
+@JsonSerialize(using = LeafMessageElement.Serializer.class)
+public class LeafMessageElement extends MessageElement {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final String NODE_VALUE = "value";
+
+  public LeafMessageElement() {
+    super();
+  }
+
+  /**
+   *
+   * @param type
+   * @param data: data of the element, with its value
+   * @param parent
+   */
+  public LeafMessageElement(String type, MessageElementData data, MessageElement parent) {
+    super(type, data, parent);
+  }
+
+  /**
+   * @return the element with its "value" child, as it is serialized
+   */
+  public MessageElement expand() {
+    gov.nist.hit.core.domain.MessageElementData data = getData();
+    MessageElement element = new MessageElement();
+    element.setType(getType());
+    element.setParent(getParent());
+    element.setData(copy(data, null));
+    MessageElement value = new MessageElement();
+    value.setType(NODE_VALUE);
+    value.setParent(element);
+    value.setData(copy(data, data.getValue()));
+    element.getChildren().add(value);
+    return element;
+  }
+
+  private static MessageElementData copy(gov.nist.hit.core.domain.MessageElementData data,
+      String value) {
+    return new MessageElementData(data.getPath(), data.getName(), data.getUsage(),
+        data.getMinOccurs(), data.getMaxOccurs(), data.getStart(), data.getEnd(),
+        data.getPosition(), data.getInstanceNumber(), value, data.getType());
+  }
+
+  public static class Serializer extends JsonSerializer<LeafMessageElement> {
+
+    @Override
+    public void serialize(LeafMessageElement element, JsonGenerator generator,
+        SerializerProvider provider) throws IOException {
+      provider.defaultSerializeValue(element.expand(), generator);
+    }
+
+  }
+
+}
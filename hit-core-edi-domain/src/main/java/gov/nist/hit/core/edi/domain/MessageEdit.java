@@ -0,0 +1,54 @@
+package gov.nist.hit.core.edi.domain;
+
+import java.io.Serializable;
+
+/**
+ * Replacement of the characters between two offsets of a message
+ */
+public class MessageEdit implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  protected int start;
+  protected int end;
+  protected String replacement;
+
+  public MessageEdit() {}
+
+  /**
+   * 
+   * @param start: offset of the first replaced character
+   * @param end: offset after the last replaced character, equal to start for an insertion
+   * @param replacement: inserted text, empty for a deletion
+   */
+  public MessageEdit(int start, int end, String replacement) {
+    this.start = start;
+    this.end = end;
+    this.replacement = replacement;
+  }
+
+  public int getStart() {
+    return start;
+  }
+
+  public void setStart(int start) {
+    this.start = start;
+  }
+
+  public int getEnd() {
+    return end;
+  }
+
+  public void setEnd(int end) {
+    this.end = end;
+  }
+
+  public String getReplacement() {
+    return replacement;
+  }
+
+  public void setReplacement(String replacement) {
+    this.replacement = replacement;
+  }
+
+}
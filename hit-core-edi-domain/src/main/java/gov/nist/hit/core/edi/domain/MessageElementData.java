@@ -13,6 +13,8 @@ package gov.nist.hit.core.edi.domain;
 
 import java.io.Serializable;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import gov.nist.hit.core.domain.Coordinate;
 
 /**
@@ -26,6 +28,8 @@ public class MessageElementData extends gov.nist.hit.core.domain.MessageElementD
 
 		private static final long serialVersionUID = 1L;
 
+		private String nodeId;
+
 		public MessageElementData() {
 				super();
 		}
@@ -55,9 +59,45 @@ public class MessageElementData extends gov.nist.hit.core.domain.MessageElementD
 				setDescription(toString());
 		}
 
+		/**
+		 * Creates data sharing the given coordinates, so a structural node and its value can
+		 * reference the same instances
+		 *
+		 * @param path
+		 * @param name
+		 * @param usage
+		 * @param minOccurs
+		 * @param maxOccurs
+		 * @param start
+		 * @param end
+		 * @param position
+		 * @param instanceNumber
+		 * @param value
+		 * @param type
+		 */
+		public MessageElementData(String path, String name, String usage, Integer minOccurs,
+				String maxOccurs, Coordinate start, Coordinate end, int position, int instanceNumber,
+				String value, String type) {
+				super(path, name, usage, minOccurs, maxOccurs, start, end, position, instanceNumber, null,
+						value, type);
+				setDescription(toString());
+		}
+
 		@Override
 		public String toString() {
 				return getLabel();
 		}
 
+		/**
+		 * @return the id used to expand the element of a lazily parsed message
+		 */
+		@JsonInclude(JsonInclude.Include.NON_NULL)
+		public String getNodeId() {
+				return nodeId;
+		}
+
+		public void setNodeId(String nodeId) {
+				this.nodeId = nodeId;
+		}
+
 }
@@ -0,0 +1,118 @@
+package gov.nist.hit.core.edi.domain;
+
+import gov.nist.hit.core.domain.MessageElement;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Changes of the segments of a message model after an edit: the segments from index {@code from}
+ * are replaced by {@code elements}. The segments after the replaced ones keep their elements and
+ * only move: those on {@code line} move by {@code columnDelta} columns, and all of them move by
+ * {@code lineDelta} lines.
+ */
+public class MessageModelPatch implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  protected String parseId;
+  protected int from;
+  protected int deleteCount;
+  protected List<MessageElement> elements = new ArrayList<MessageElement>();
+  protected int line;
+  protected int lineDelta;
+  protected int columnDelta;
+  protected Map<String, String> delimeters;
+
+  public MessageModelPatch() {}
+
+  public MessageModelPatch(String parseId, int from, int deleteCount,
+      List<MessageElement> elements) {
+    this.parseId = parseId;
+    this.from = from;
+    this.deleteCount = deleteCount;
+    this.elements = elements;
+  }
+
+  public String getParseId() {
+    return parseId;
+  }
+
+  public void setParseId(String parseId) {
+    this.parseId = parseId;
+  }
+
+  /**
+   * @return index of the first replaced segment
+   */
+  public int getFrom() {
+    return from;
+  }
+
+  public void setFrom(int from) {
+    this.from = from;
+  }
+
+  /**
+   * @return number of replaced segments
+   */
+  public int getDeleteCount() {
+    return deleteCount;
+  }
+
+  public void setDeleteCount(int deleteCount) {
+    this.deleteCount = deleteCount;
+  }
+
+  public List<MessageElement> getElements() {
+    return elements;
+  }
+
+  public void setElements(List<MessageElement> elements) {
+    this.elements = elements;
+  }
+
+  /**
+   * @return line of the end of the edit, before the edit
+   */
+  public int getLine() {
+    return line;
+  }
+
+  public void setLine(int line) {
+    this.line = line;
+  }
+
+  public int getLineDelta() {
+    return lineDelta;
+  }
+
+  public void setLineDelta(int lineDelta) {
+    this.lineDelta = lineDelta;
+  }
+
+  public int getColumnDelta() {
+    return columnDelta;
+  }
+
+  public void setColumnDelta(int columnDelta) {
+    this.columnDelta = columnDelta;
+  }
+
+  /**
+   * @return the separators of the message when the whole model was rebuilt, null otherwise
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  public Map<String, String> getDelimeters() {
+    return delimeters;
+  }
+
+  public void setDelimeters(Map<String, String> delimeters) {
+    this.delimeters = delimeters;
+  }
+
+}
@@ -3,6 +3,8 @@ package gov.nist.hit.core.edi.repo;
 import gov.nist.hit.core.domain.ConformanceProfile;
 import gov.nist.hit.core.edi.domain.EDITestContext;
 
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -11,4 +13,10 @@ public interface EDITestContextRepository extends JpaRepository<EDITestContext,
 
   @Query("select tc.conformanceProfile from TestContext tc where tc.id = :id")
   public ConformanceProfile findConformanceProfileByTestContextId(@Param("id") Long id);
+
+  @Query("select tc.conformanceProfile.id from TestContext tc where tc.id = :id")
+  public Long findConformanceProfileIdByTestContextId(@Param("id") Long id);
+
+  @Query("select tc.id from EDITestContext tc order by tc.id")
+  public List<Long> findAllIds();
 }
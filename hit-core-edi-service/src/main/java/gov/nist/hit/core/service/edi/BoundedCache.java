@@ -0,0 +1,157 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A size bounded cache evicting the least recently used entry first. All operations are
+ * synchronized so a single instance can be shared by concurrent parsers and validators.
+ * 
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class BoundedCache<K, V> {
+
+  /**
+   * Computes the value of a missing key
+   */
+  public interface Loader<K, V> {
+    V load(K key) throws Exception;
+  }
+
+  private final int maxSize;
+  private final LinkedHashMap<K, V> entries;
+  private final Map<K, FutureTask<V>> loading = new HashMap<K, FutureTask<V>>();
+
+  public BoundedCache(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Cache size must be positive but found " + maxSize);
+    }
+    this.maxSize = maxSize;
+    this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > BoundedCache.this.maxSize;
+      }
+    };
+  }
+
+  /**
+   * 
+   * @param key
+   * @return the cached value or null
+   */
+  public synchronized V getIfPresent(K key) {
+    return entries.get(key);
+  }
+
+  /**
+   * Returns the cached value, loading and caching it if missing. The loader runs outside of the
+   * lock so a slow load does not block readers of other keys, and concurrent requests of the same
+   * missing key wait for a single load.
+   * 
+   * @param key
+   * @param loader
+   * @return
+   * @throws Exception
+   */
+  public V get(final K key, final Loader<K, V> loader) throws Exception {
+    FutureTask<V> task;
+    boolean owner = false;
+    synchronized (this) {
+      V value = entries.get(key);
+      if (value != null) {
+        return value;
+      }
+      task = loading.get(key);
+      if (task == null) {
+        task = new FutureTask<V>(new Callable<V>() {
+          @Override
+          public V call() throws Exception {
+            return loader.load(key);
+          }
+        });
+        loading.put(key, task);
+        owner = true;
+      }
+    }
+    if (owner) {
+      task.run();
+      synchronized (this) {
+        // an invalidation during the load discards the loaded value
+        boolean current = loading.get(key) == task;
+        if (current) {
+          loading.remove(key);
+        }
+        if (current && !task.isCancelled()) {
+          try {
+            V value = task.get();
+            if (value != null) {
+              entries.put(key, value);
+            }
+          } catch (ExecutionException e) {
+            // reported to the callers below
+          }
+        }
+      }
+    }
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
+  public synchronized void put(K key, V value) {
+    entries.put(key, value);
+  }
+
+  public synchronized void invalidate(K key) {
+    entries.remove(key);
+    loading.remove(key);
+  }
+
+  public synchronized void invalidateAll() {
+    entries.clear();
+    loading.clear();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized List<K> keys() {
+    return new ArrayList<K>(entries.keySet());
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+}
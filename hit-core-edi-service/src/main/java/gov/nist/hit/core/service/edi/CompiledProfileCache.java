@@ -0,0 +1,85 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.edi.domain.util.Util;
+import hl7.v2.profile.Profile;
+import ncpdp.script.profile.XMLDeserializer;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Deserialized integration profiles keyed by the SHA-256 hash of their xml content.
+ * {@link Profile} instances are immutable and can be used by several parses at once.
+ */
+@Service
+public class CompiledProfileCache {
+
+  public static final int DEFAULT_MAX_SIZE = 32;
+
+  private final BoundedCache<String, Profile> profiles;
+
+  public CompiledProfileCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  @Autowired
+  public CompiledProfileCache(@Value("${edi.cache.profiles.maxSize:32}") int maxSize) {
+    this.profiles = new BoundedCache<String, Profile>(maxSize);
+  }
+
+  /**
+   * 
+   * @param profileXml: integration profile xml content
+   * @return the deserialized profile
+   * @throws Exception
+   */
+  public Profile getProfile(final String profileXml) throws Exception {
+    return profiles.get(key(profileXml), new BoundedCache.Loader<String, Profile>() {
+      @Override
+      public Profile load(String key) throws Exception {
+        InputStream profileStream = IOUtils.toInputStream(profileXml);
+        return XMLDeserializer.deserialize(profileStream).get();
+      }
+    });
+  }
+
+  public boolean contains(String profileXml) {
+    return profiles.getIfPresent(key(profileXml)) != null;
+  }
+
+  public void invalidate(String profileXml) {
+    profiles.invalidate(key(profileXml));
+  }
+
+  public void invalidateAll() {
+    profiles.invalidateAll();
+  }
+
+  public int size() {
+    return profiles.size();
+  }
+
+  public int getMaxSize() {
+    return profiles.getMaxSize();
+  }
+
+  String key(String profileXml) {
+    return Util.contentHash(profileXml);
+  }
+
+}
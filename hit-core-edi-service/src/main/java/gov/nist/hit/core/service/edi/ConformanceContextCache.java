@@ -0,0 +1,107 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.Constraints;
+import gov.nist.hit.core.edi.domain.util.Util;
+import hl7.v2.validation.content.ConformanceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Conformance contexts built from constraints xml, keyed by the id and content hash of the
+ * constraints and additional constraints they were built from.
+ * 
+ * Entries of a replaced constraints resource are invalidated by {@link EDIResourceLoaderImpl}.
+ */
+@Service
+public class ConformanceContextCache {
+
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  private static final String NONE = "-";
+  private static final String SEPARATOR = "|";
+
+  private final BoundedCache<String, ConformanceContext> contexts;
+
+  public ConformanceContextCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  @Autowired
+  public ConformanceContextCache(
+      @Value("${edi.cache.conformanceContexts.maxSize:64}") int maxSize) {
+    this.contexts = new BoundedCache<String, ConformanceContext>(maxSize);
+  }
+
+  /**
+   * 
+   * @param constraints
+   * @param additionalConstraints
+   * @param loader: builds the conformance context when it is not cached yet
+   * @return
+   * @throws Exception
+   */
+  public ConformanceContext get(Constraints constraints, Constraints additionalConstraints,
+      BoundedCache.Loader<String, ConformanceContext> loader) throws Exception {
+    return contexts.get(key(constraints, additionalConstraints), loader);
+  }
+
+  public ConformanceContext getIfPresent(Constraints constraints,
+      Constraints additionalConstraints) {
+    return contexts.getIfPresent(key(constraints, additionalConstraints));
+  }
+
+  /**
+   * Removes every conformance context built from the constraints resource with the given id
+   * 
+   * @param constraintsId
+   */
+  public void invalidate(Long constraintsId) {
+    if (constraintsId == null) {
+      return;
+    }
+    String prefix = constraintsId + ":";
+    for (String key : contexts.keys()) {
+      int separator = key.indexOf(SEPARATOR);
+      if (key.startsWith(prefix) || key.startsWith(prefix, separator + 1)) {
+        contexts.invalidate(key);
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    contexts.invalidateAll();
+  }
+
+  public int size() {
+    return contexts.size();
+  }
+
+  public int getMaxSize() {
+    return contexts.getMaxSize();
+  }
+
+  String key(Constraints constraints, Constraints additionalConstraints) {
+    return key(constraints) + SEPARATOR + key(additionalConstraints);
+  }
+
+  String key(Constraints constraints) {
+    if (constraints == null || constraints.getXml() == null) {
+      return NONE;
+    }
+    return constraints.getId() + ":" + Util.contentHash(constraints.getXml());
+  }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.edi.domain.util.Util;
+
+/**
+ * Conformance profile json and xml generated from an integration profile, keyed by the content
+ * hash of the integration profile, the message id and the constraints. Test contexts sharing the
+ * same profile and constraints only pay for the generation once during a load.
+ * 
+ * {@link EDIResourceLoaderImpl} creates an instance at the start of each load and clears it once
+ * the load is over.
+ */
+public class ConformanceProfileCache {
+
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  private final BoundedCache<String, String> jsons;
+  private final BoundedCache<String, String> xmls;
+
+  public ConformanceProfileCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  public ConformanceProfileCache(int maxSize) {
+    this.jsons = new BoundedCache<String, String>(maxSize);
+    this.xmls = new BoundedCache<String, String>(maxSize);
+  }
+
+  /**
+   * 
+   * @param integrationProfileXml
+   * @param messageId
+   * @param constraintsXml
+   * @param additionalConstraintsXml
+   * @param loader: generates the conformance profile json when it is not cached yet
+   * @return
+   * @throws Exception
+   */
+  public String getJson(String integrationProfileXml, String messageId, String constraintsXml,
+      String additionalConstraintsXml, BoundedCache.Loader<String, String> loader)
+      throws Exception {
+    return jsons.get(
+        key(integrationProfileXml, messageId, Util.contentHash(constraintsXml),
+            Util.contentHash(additionalConstraintsXml)), loader);
+  }
+
+  /**
+   * 
+   * @param integrationProfileXml
+   * @param messageId
+   * @param loader: extracts the conformance profile xml when it is not cached yet
+   * @return
+   * @throws Exception
+   */
+  public String getXml(String integrationProfileXml, String messageId,
+      BoundedCache.Loader<String, String> loader) throws Exception {
+    return xmls.get(key(integrationProfileXml, messageId), loader);
+  }
+
+  public void invalidateAll() {
+    jsons.invalidateAll();
+    xmls.invalidateAll();
+  }
+
+  public int size() {
+    return jsons.size() + xmls.size();
+  }
+
+  private String key(String integrationProfileXml, String... parts) {
+    StringBuilder key = new StringBuilder().append(Util.contentHash(integrationProfileXml));
+    for (String part : parts) {
+      key.append('|').append(part != null ? part : "-");
+    }
+    return key.toString();
+  }
+
+}
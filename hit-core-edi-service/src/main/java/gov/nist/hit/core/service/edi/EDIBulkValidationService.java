@@ -0,0 +1,343 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.healthcare.unified.model.EnhancedReport;
+import gov.nist.hit.core.domain.MessageValidationCommand;
+import gov.nist.hit.core.domain.TestContext;
+import gov.nist.hit.core.service.exception.MessageValidationException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Validates a batch of messages against a single test context. Messages are read lazily, validated
+ * in parallel with at most {@code edi.validation.bulk.maxInFlight} messages in memory, and each
+ * result is written as one json line as soon as it is available.
+ */
+@Service
+public class EDIBulkValidationService {
+
+  static final Logger logger = LoggerFactory.getLogger(EDIBulkValidationService.class);
+
+  @Autowired
+  private EDIMessageValidator messageValidator;
+
+  @Value("${edi.validation.bulk.workers:4}")
+  private int workers;
+
+  @Value("${edi.validation.bulk.maxInFlight:16}")
+  private int maxInFlight;
+
+  private final ObjectMapper mapper = new ObjectMapper();
+  private final JsonFactory jsonFactory = new JsonFactory();
+
+  private ExecutorService executor;
+
+  @PostConstruct
+  public void init() {
+    executor = Executors.newFixedThreadPool(workers);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Validates the messages and streams one json line per message to the output stream, in
+   * completion order
+   * 
+   * @param testContext
+   * @param messages
+   * @param out
+   * @return number of messages validated
+   * @throws IOException
+   * @throws InterruptedException
+   * @throws MessageValidationException if the resources of the test context cannot be loaded
+   */
+  public int validate(final TestContext testContext, Iterator<BulkMessage> messages,
+      OutputStream out) throws IOException, InterruptedException, MessageValidationException {
+    messageValidator.loadResources(testContext);
+    CompletionService<BulkResult> completion = new ExecutorCompletionService<BulkResult>(executor);
+    JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+    int inFlight = 0;
+    int count = 0;
+    try {
+      while (messages.hasNext()) {
+        final BulkMessage message = messages.next();
+        completion.submit(new Callable<BulkResult>() {
+          @Override
+          public BulkResult call() {
+            return validate(testContext, message);
+          }
+        });
+        inFlight++;
+        count++;
+        if (inFlight >= maxInFlight) {
+          write(take(completion), generator);
+          inFlight--;
+        }
+      }
+      while (inFlight > 0) {
+        write(take(completion), generator);
+        inFlight--;
+      }
+    } finally {
+      generator.flush();
+    }
+    return count;
+  }
+
+  private BulkResult validate(TestContext testContext, BulkMessage message) {
+    if (message.getError() != null) {
+      return new BulkResult(message, null, message.getError());
+    }
+    try {
+      EnhancedReport report = messageValidator.generateReport(testContext, message.getCommand());
+      return new BulkResult(message, report.to("json").toString(), null);
+    } catch (Exception e) {
+      return new BulkResult(message, null, e.getMessage() != null ? e.getMessage() : e.getClass()
+          .getSimpleName());
+    }
+  }
+
+  private BulkResult take(CompletionService<BulkResult> completion) throws InterruptedException {
+    try {
+      return completion.take().get();
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private void write(BulkResult result, JsonGenerator generator) throws IOException {
+    generator.writeStartObject();
+    generator.writeNumberField("index", result.message.getIndex());
+    if (result.message.getName() != null) {
+      generator.writeStringField("name", result.message.getName());
+    }
+    if (result.error != null) {
+      generator.writeStringField("error", result.error);
+    } else {
+      generator.writeFieldName("report");
+      generator.writeRawValue(result.report);
+    }
+    generator.writeEndObject();
+    generator.writeRaw('\n');
+    generator.flush();
+  }
+
+  /**
+   * Reads one message per line. A line is either a json object with a "content" field and
+   * optional "name" and "contextType" fields, or a json string holding the message content. A
+   * malformed line gets an error result and reading goes on with the next line.
+   * 
+   * @param in
+   * @param contextType: context type of messages not defining one
+   * @return
+   */
+  public Iterator<BulkMessage> ndjson(InputStream in, final String contextType) {
+    final BufferedReader reader =
+        new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    return new MessageIterator() {
+      private int lineNumber;
+
+      @Override
+      protected BulkMessage read(int index) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lineNumber++;
+          if (!line.trim().isEmpty()) {
+            JsonNode node;
+            try {
+              node = mapper.readTree(line);
+            } catch (JsonProcessingException e) {
+              return new BulkMessage(index, null, null, "Malformed json at line " + lineNumber
+                  + ": " + e.getOriginalMessage());
+            }
+            if (node.isTextual()) {
+              return new BulkMessage(index, null, command(node.textValue(), contextType));
+            }
+            String name = node.hasNonNull("name") ? node.get("name").asText() : null;
+            String type =
+                node.hasNonNull("contextType") ? node.get("contextType").asText() : contextType;
+            String content = node.hasNonNull("content") ? node.get("content").asText() : null;
+            return new BulkMessage(index, name, command(content, type));
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  /**
+   * Reads one message per file entry of a zip archive
+   * 
+   * @param in
+   * @param contextType
+   * @return
+   */
+  public Iterator<BulkMessage> zip(InputStream in, final String contextType) {
+    final ZipInputStream zip = new ZipInputStream(in);
+    return new MessageIterator() {
+      @Override
+      protected BulkMessage read(int index) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+          if (!entry.isDirectory()) {
+            String content = IOUtils.toString(zip, StandardCharsets.UTF_8.name());
+            return new BulkMessage(index, entry.getName(), command(content, contextType));
+          }
+        }
+        return null;
+      }
+    };
+  }
+
+  private MessageValidationCommand command(String content, String contextType) {
+    MessageValidationCommand command = new MessageValidationCommand();
+    command.setContent(content);
+    command.setContextType(contextType);
+    return command;
+  }
+
+  public static class BulkMessage {
+
+    private final int index;
+    private final String name;
+    private final MessageValidationCommand command;
+    private final String error;
+
+    public BulkMessage(int index, String name, MessageValidationCommand command) {
+      this(index, name, command, null);
+    }
+
+    /**
+     * 
+     * @param index
+     * @param name
+     * @param command
+     * @param error: why the message could not be read, null if it was read
+     */
+    public BulkMessage(int index, String name, MessageValidationCommand command, String error) {
+      this.index = index;
+      this.name = name;
+      this.command = command;
+      this.error = error;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public MessageValidationCommand getCommand() {
+      return command;
+    }
+
+    public String getError() {
+      return error;
+    }
+  }
+
+  private static class BulkResult {
+
+    private final BulkMessage message;
+    private final String report;
+    private final String error;
+
+    BulkResult(BulkMessage message, String report, String error) {
+      this.message = message;
+      this.report = report;
+      this.error = error;
+    }
+  }
+
+  private abstract static class MessageIterator implements Iterator<BulkMessage> {
+
+    private BulkMessage next;
+    private int index;
+    private boolean done;
+
+    protected abstract BulkMessage read(int index) throws IOException;
+
+    @Override
+    public boolean hasNext() {
+      if (next == null && !done) {
+        try {
+          next = read(index);
+        } catch (IOException e) {
+          throw new IllegalArgumentException("Failed to read message " + index + ": "
+              + e.getMessage(), e);
+        }
+        if (next == null) {
+          done = true;
+        } else {
+          index++;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public BulkMessage next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      BulkMessage message = next;
+      next = null;
+      return message;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+}
@@ -0,0 +1,468 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.MessageElement;
+import gov.nist.hit.core.domain.MessageParserCommand;
+import gov.nist.hit.core.domain.TestContext;
+import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.edi.domain.EditableMessageModel;
+import gov.nist.hit.core.edi.domain.MessageEdit;
+import gov.nist.hit.core.edi.domain.MessageModelPatch;
+import gov.nist.hit.core.service.exception.MessageParserException;
+import hl7.v2.profile.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Parses the messages of the interactive editor and re-parses only the segments touched by an
+ * edit. The segment boundaries of each message are kept in an edit session, keyed by a generated
+ * parse id. Sessions expire after a time to live and the least recently used sessions are evicted
+ * past the maximum number of sessions.
+ * 
+ * Messages are parsed with the {@link EDITokenizer} since the profile based parser can only parse
+ * whole messages. The models are those of the tokenizer engine of {@link EDIMessageParser}. The
+ * tokenizer does not track groups, see {@link EDITokenModelBuilder}, so no session is opened for a
+ * message whose profile has groups.
+ */
+@Service
+public class EDIIncrementalParser {
+
+  @Value("${edi.editor.sessions:64}")
+  private int maxSessions = 64;
+
+  @Value("${edi.editor.ttl:600000}")
+  private long ttlMillis = 10 * 60 * 1000L;
+
+  @Autowired
+  private CompiledProfileCache profileCache;
+
+  private BoundedCache<String, Session> sessions;
+
+  @PostConstruct
+  public void init() {
+    sessions = new BoundedCache<String, Session>(maxSessions);
+  }
+
+  /**
+   * Parses the message and opens an edit session
+   * 
+   * @param context
+   * @param command
+   * @return the model of the message with the parse id of the session
+   * @throws MessageParserException, also when the profile of the message has groups
+   */
+  public EditableMessageModel parse(TestContext context, MessageParserCommand command)
+      throws MessageParserException {
+    if (!(context instanceof EDITestContext)) {
+      throw new MessageParserException(
+          "Invalid Context Provided. Expected Context is EDITestContext but found "
+              + context.getClass().getSimpleName());
+    }
+    EDITestContext testContext = (EDITestContext) context;
+    String profileXml = testContext.getConformanceProfile().getXml();
+    if (profileXml == null) {
+      throw new MessageParserException("No Conformance Profile Provided to Parse the Message");
+    }
+    try {
+      Message profile =
+          profileCache.getProfile(profileXml).messages()
+              .apply(testContext.getConformanceProfile().getSourceId());
+      if (EDITokenModelBuilder.hasGroups(profile)) {
+        throw new MessageParserException("Messages of profile "
+            + testContext.getConformanceProfile().getSourceId()
+            + " have groups and cannot be edited incrementally");
+      }
+      String content = command.getContent() != null ? command.getContent() : "";
+      Session session = new Session(content, profile);
+      List<MessageElement> elements = session.build();
+      String parseId = UUID.randomUUID().toString();
+      session.expiresAt = System.currentTimeMillis() + ttlMillis;
+      sessions.put(parseId, session);
+      return new EditableMessageModel(elements,
+          EDIMessageParser.getDelimeters(session.delimiters), parseId);
+    } catch (MessageParserException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw new MessageParserException(e.getMessage());
+    } catch (Exception e) {
+      throw new MessageParserException(e.getMessage());
+    }
+  }
+
+  /**
+   * Applies the edit to the message of the session and re-parses the segments it touches
+   * 
+   * @param parseId
+   * @param edit: offsets of the edit in the message as of the previous edit
+   * @return the changes of the model
+   * @throws MessageParserException
+   */
+  public MessageModelPatch edit(String parseId, MessageEdit edit) throws MessageParserException {
+    Session session = session(parseId);
+    synchronized (session) {
+      int start = edit.getStart();
+      int end = edit.getEnd();
+      if (start < 0 || start > end || end > session.text.length()) {
+        throw new MessageParserException("Invalid edit range [" + start + "," + end
+            + "] for a message of length " + session.text.length());
+      }
+      try {
+        MessageModelPatch patch =
+            session.edit(start, end, edit.getReplacement() != null ? edit.getReplacement() : "");
+        patch.setParseId(parseId);
+        session.expiresAt = System.currentTimeMillis() + ttlMillis;
+        return patch;
+      } catch (RuntimeException e) {
+        sessions.invalidate(parseId);
+        throw new MessageParserException(e.getMessage());
+      }
+    }
+  }
+
+  public void close(String parseId) {
+    sessions.invalidate(parseId);
+  }
+
+  private Session session(String parseId) throws MessageParserException {
+    Session session = sessions.getIfPresent(parseId);
+    if (session != null && session.expiresAt < System.currentTimeMillis()) {
+      sessions.invalidate(parseId);
+      session = null;
+    }
+    if (session == null) {
+      throw new MessageParserException("No edit session available with id=" + parseId
+          + ", it may have expired");
+    }
+    return session;
+  }
+
+  public CompiledProfileCache getProfileCache() {
+    return profileCache;
+  }
+
+  public void setProfileCache(CompiledProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
+
+  /**
+   * Text and segment boundaries of an edited message
+   */
+  private static class Session {
+    private final StringBuilder text;
+    private final Message profile;
+    private final EDITokenizer tokenizer = new EDITokenizer();
+    private EDITokenizer.Delimiters delimiters;
+    private int contentStart;
+    private List<Span> spans = new ArrayList<Span>();
+    private volatile long expiresAt;
+
+    private Session(String text, Message profile) {
+      this.text = new StringBuilder(text);
+      this.profile = profile;
+    }
+
+    private List<MessageElement> build() {
+      delimiters = EDITokenizer.delimiters(text);
+      contentStart = EDITokenizer.contentStart(text);
+      EDITokenModelBuilder builder = new EDITokenModelBuilder(text, profile);
+      SpanCollector collector = new SpanCollector(text, 0, 1, 0, builder);
+      tokenizer.tokenize(text, contentStart, text.length(), delimiters, collector);
+      spans = collector.spans;
+      number(spans, new HashMap<String, Integer>());
+      return builder.getElements();
+    }
+
+    private MessageModelPatch rebuild(int count) {
+      MessageModelPatch patch = new MessageModelPatch(null, 0, count, build());
+      patch.setDelimeters(EDIMessageParser.getDelimeters(delimiters));
+      return patch;
+    }
+
+    private MessageModelPatch edit(int start, int end, String replacement) {
+      int count = spans.size();
+      if (start < contentStart || spans.isEmpty()) {
+        text.replace(start, end, replacement);
+        return rebuild(count);
+      }
+      int first = firstEndingFrom(start);
+      int last = Math.max(first, lastStartingBefore(end));
+      int from = Math.min(start, spans.get(first).start);
+      // the segments before the edit keep their positions
+      Span base = from < spans.get(first).start ? spans.get(first - 1) : spans.get(first);
+      int[] oldEnd = position(base, end);
+
+      text.replace(start, end, replacement);
+      int delta = replacement.length() - (end - start);
+      // the edit added a service string or line breaks before the first segment
+      if (EDITokenizer.contentStart(text) != contentStart) {
+        return rebuild(count);
+      }
+      int to = rangeEnd(last, delta);
+      // a removed or escaped terminator merges the segment with the next one
+      while (last < count - 1 && !endsSegment(from, to)) {
+        last++;
+        to = rangeEnd(last, delta);
+      }
+      List<Span> parsed = collect(base, from, to);
+      if (last < count - 1 && !sameTags(spans.subList(first, last + 1), parsed)) {
+        // the instance numbers of the next segments change
+        last = count - 1;
+        to = text.length();
+        parsed = collect(base, from, to);
+      }
+
+      Set<String> tags = new HashSet<String>();
+      for (Span span : parsed) {
+        tags.add(span.tag);
+      }
+      Map<String, Integer> instances = new HashMap<String, Integer>();
+      for (int i = first - 1; i >= 0 && instances.size() < tags.size(); i--) {
+        Span span = spans.get(i);
+        if (tags.contains(span.tag) && !instances.containsKey(span.tag)) {
+          instances.put(span.tag, span.instance);
+        }
+      }
+      List<MessageElement> elements = new ArrayList<MessageElement>();
+      if (!parsed.isEmpty()) {
+        Span s = parsed.get(0);
+        EDITokenModelBuilder builder =
+            new EDITokenModelBuilder(text, profile, s.start, to, s.line, s.start - s.column,
+                new HashMap<String, Integer>(instances), first);
+        tokenizer.tokenize(text, s.start, to, delimiters, builder);
+        elements = builder.getElements();
+      }
+      number(parsed, instances);
+
+      int[] newEnd = position(base, start + replacement.length());
+      int lineDelta = newEnd[0] - oldEnd[0];
+      int columnDelta = delta - newEnd[1] + oldEnd[1];
+      for (int i = last + 1; i < count; i++) {
+        Span span = spans.get(i);
+        span.start += delta;
+        span.end += delta;
+        if (span.line == oldEnd[0]) {
+          span.column += columnDelta;
+        }
+        span.line += lineDelta;
+      }
+      MessageModelPatch patch = new MessageModelPatch(null, first, last - first + 1, elements);
+      patch.setLine(oldEnd[0]);
+      patch.setLineDelta(lineDelta);
+      patch.setColumnDelta(columnDelta);
+      spans.subList(first, last + 1).clear();
+      spans.addAll(first, parsed);
+      return patch;
+    }
+
+    private List<Span> collect(Span base, int from, int to) {
+      SpanCollector collector =
+          new SpanCollector(text, base.start, base.line, base.start - base.column, null);
+      tokenizer.tokenize(text, from, to, delimiters, collector);
+      return collector.spans;
+    }
+
+    /**
+     * @return index of the first segment ending at or after the offset, the last segment when the
+     *         offset is after the message
+     */
+    private int firstEndingFrom(int offset) {
+      int low = 0;
+      int high = spans.size();
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (spans.get(mid).end >= offset) {
+          high = mid;
+        } else {
+          low = mid + 1;
+        }
+      }
+      return Math.min(low, spans.size() - 1);
+    }
+
+    /**
+     * @return index of the last segment starting before the offset, -1 when none
+     */
+    private int lastStartingBefore(int offset) {
+      int low = 0;
+      int high = spans.size();
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (spans.get(mid).start < offset) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low - 1;
+    }
+
+    /**
+     * @return end offset (exclusive) of the segment and its trailing line breaks in the edited
+     *         text, the segments after it being moved by delta
+     */
+    private int rangeEnd(int index, int delta) {
+      return index + 1 < spans.size() ? spans.get(index + 1).start + delta : text.length();
+    }
+
+    private boolean endsSegment(int from, int to) {
+      int i = to - 1;
+      while (i >= from && (text.charAt(i) == '\r' || text.charAt(i) == '\n')) {
+        i--;
+      }
+      if (i < from) {
+        return true;
+      }
+      if (text.charAt(i) != delimiters.getSegment()) {
+        return false;
+      }
+      int releases = 0;
+      for (int j = i - 1; j >= from && text.charAt(j) == delimiters.getRelease(); j--) {
+        releases++;
+      }
+      return releases % 2 == 0;
+    }
+
+    /**
+     * @return line and line start offset of the offset, counted from the segment
+     */
+    private int[] position(Span base, int offset) {
+      int line = base.line;
+      int lineStart = base.start - base.column;
+      for (int i = base.start; i < offset; i++) {
+        if (text.charAt(i) == '\n') {
+          line++;
+          lineStart = i + 1;
+        }
+      }
+      return new int[] {line, lineStart};
+    }
+
+    private static boolean sameTags(List<Span> previous, List<Span> parsed) {
+      if (previous.size() != parsed.size()) {
+        return false;
+      }
+      Map<String, Integer> counts = new HashMap<String, Integer>();
+      for (Span span : previous) {
+        Integer c = counts.get(span.tag);
+        counts.put(span.tag, c == null ? 1 : c + 1);
+      }
+      for (Span span : parsed) {
+        Integer c = counts.get(span.tag);
+        if (c == null || c == 0) {
+          return false;
+        }
+        counts.put(span.tag, c - 1);
+      }
+      return true;
+    }
+
+    private static void number(List<Span> spans, Map<String, Integer> instances) {
+      for (Span span : spans) {
+        Integer instance = instances.get(span.tag);
+        span.instance = instance == null ? 1 : instance + 1;
+        instances.put(span.tag, span.instance);
+      }
+    }
+  }
+
+  /**
+   * Boundaries of a segment
+   */
+  private static class Span {
+    private int start;
+    // offset of the segment terminator or end of the message
+    private int end;
+    private String tag;
+    private int instance;
+    // 1 based line and 0 based column of the start
+    private int line;
+    private int column;
+  }
+
+  /**
+   * Records the segment boundaries and forwards the tokens to a delegate handler
+   */
+  private static class SpanCollector implements EDITokenizer.Handler {
+    private final CharSequence text;
+    private final EDITokenizer.Handler delegate;
+    private final List<Span> spans = new ArrayList<Span>();
+    private int offset;
+    private int line;
+    private int lineStart;
+
+    /**
+     * 
+     * @param text
+     * @param offset: offset before the range with a known line
+     * @param line
+     * @param lineStart
+     * @param delegate: handler to forward to, null for none
+     */
+    private SpanCollector(CharSequence text, int offset, int line, int lineStart,
+        EDITokenizer.Handler delegate) {
+      this.text = text;
+      this.offset = offset;
+      this.line = line;
+      this.lineStart = lineStart;
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void segment(int start, int tagEnd) {
+      for (; offset < start; offset++) {
+        if (text.charAt(offset) == '\n') {
+          line++;
+          lineStart = offset + 1;
+        }
+      }
+      Span span = new Span();
+      span.start = start;
+      span.tag = text.subSequence(start, tagEnd).toString();
+      span.line = line;
+      span.column = start - lineStart;
+      spans.add(span);
+      if (delegate != null) {
+        delegate.segment(start, tagEnd);
+      }
+    }
+
+    @Override
+    public void field(int position, int repetition, int start, int end, int[] components,
+        int componentCount) {
+      if (delegate != null) {
+        delegate.field(position, repetition, start, end, components, componentCount);
+      }
+    }
+
+    @Override
+    public void endSegment(int end) {
+      spans.get(spans.size() - 1).end = end;
+      if (delegate != null) {
+        delegate.endSegment(end);
+      }
+    }
+  }
+
+}
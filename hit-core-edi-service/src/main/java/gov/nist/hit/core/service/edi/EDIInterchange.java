@@ -0,0 +1,371 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An interchange split on its transaction boundaries. Each transaction is rebuilt as a standalone
+ * message made of the interchange header, the transaction (UNH/UIH to UNT/UIT) and the interchange
+ * trailer (UNZ/UIZ). The control count of the trailer is rewritten so that each message counts
+ * its own transaction, the last one keeping what remains of the declared count. Positions in a
+ * transaction message are mapped back to the interchange.
+ */
+public class EDIInterchange {
+
+  private static final List<String> TRANSACTION_HEADERS = Arrays.asList("UNH", "UIH");
+  private static final List<String> TRANSACTION_TRAILERS = Arrays.asList("UNT", "UIT");
+  private static final List<String> INTERCHANGE_TRAILERS = Arrays.asList("UNZ", "UIZ");
+
+  private final String message;
+  private final int[] lineStarts;
+  private final List<Transaction> transactions;
+
+  private EDIInterchange(String message, List<Transaction> transactions) {
+    this.message = message;
+    this.lineStarts = lineStarts(message);
+    this.transactions = Collections.unmodifiableList(transactions);
+    for (Transaction transaction : transactions) {
+      transaction.interchange = this;
+    }
+  }
+
+  /**
+   * 
+   * @param message
+   * @return the interchange or null when the message has less than two transactions or segments
+   *         outside the transactions other than the interchange header and trailer, like the
+   *         UNG/UNE segments of functional groups
+   */
+  public static EDIInterchange split(String message) {
+    final List<int[]> segments = new ArrayList<int[]>();
+    final List<String> tags = new ArrayList<String>();
+    final String content = message;
+    new EDITokenizer().tokenize(message, new EDITokenizer.Handler() {
+      private int start;
+
+      @Override
+      public void segment(int start, int tagEnd) {
+        this.start = start;
+        tags.add(content.substring(start, tagEnd));
+      }
+
+      @Override
+      public void field(int position, int repetition, int start, int end, int[] components,
+          int componentCount) {}
+
+      @Override
+      public void endSegment(int end) {
+        segments.add(new int[] {start, Math.min(end + 1, content.length())});
+      }
+    });
+
+    List<int[]> ranges = new ArrayList<int[]>();
+    int trailerIndex = -1;
+    int transactionStart = -1;
+    for (int i = 0; i < segments.size(); i++) {
+      String tag = tags.get(i);
+      if (transactionStart >= 0) {
+        if (TRANSACTION_TRAILERS.contains(tag)) {
+          ranges.add(new int[] {transactionStart, segments.get(i)[1]});
+          transactionStart = -1;
+        }
+      } else if (TRANSACTION_HEADERS.contains(tag)) {
+        transactionStart = segments.get(i)[0];
+      } else if (INTERCHANGE_TRAILERS.contains(tag)) {
+        trailerIndex = i;
+        break;
+      } else if (!ranges.isEmpty()) {
+        // would not be part of any transaction message
+        return null;
+      }
+    }
+    if (ranges.size() < 2 || transactionStart >= 0) {
+      return null;
+    }
+
+    String header = message.substring(0, ranges.get(0)[0]);
+    int trailerStart = trailerIndex >= 0 ? segments.get(trailerIndex)[0] : message.length();
+    int[] count =
+        trailerIndex >= 0 ? controlCount(message, segments.get(trailerIndex),
+            tags.get(trailerIndex)) : null;
+    String trailer = message.substring(trailerStart);
+    List<Transaction> transactions = new ArrayList<Transaction>(ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      int[] range = ranges.get(i);
+      String transaction = message.substring(range[0], range[1]);
+      if (count == null) {
+        transactions.add(new Transaction(i, header, transaction, range[0], trailer,
+            trailerStart, trailer.length(), -1, 0));
+        continue;
+      }
+      int transactionCount = i < ranges.size() - 1 ? 1 : Math.max(0, count[2] - i);
+      transactions.add(new Transaction(i, header, transaction, range[0],
+          message.substring(trailerStart, count[0]) + transactionCount
+              + message.substring(count[1]), trailerStart, trailer.length(),
+          count[0] - trailerStart, count[1] - count[0]));
+    }
+    return new EDIInterchange(message, transactions);
+  }
+
+  /**
+   * 
+   * @param message
+   * @param segment: start and end offsets of the interchange trailer
+   * @param tag: UNZ or UIZ
+   * @return the start and end offsets and the value of the interchange control count, null when
+   *         it is not a number
+   */
+  private static int[] controlCount(final String message, int[] segment, String tag) {
+    final int position = "UNZ".equals(tag) ? 1 : 2;
+    final int[] range = new int[] {-1, -1};
+    new EDITokenizer().tokenize(message, segment[0], segment[1],
+        EDITokenizer.delimiters(message), new EDITokenizer.Handler() {
+          @Override
+          public void segment(int start, int tagEnd) {}
+
+          @Override
+          public void field(int fieldPosition, int repetition, int start, int end,
+              int[] components, int componentCount) {
+            if (fieldPosition == position && repetition == 1) {
+              range[0] = components[0];
+              range[1] = components[1];
+            }
+          }
+
+          @Override
+          public void endSegment(int end) {}
+        });
+    if (range[0] < 0 || range[0] == range[1]) {
+      return null;
+    }
+    try {
+      return new int[] {range[0], range[1],
+          Integer.parseInt(message.substring(range[0], range[1]))};
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  public String getMessage() {
+    return message;
+  }
+
+  public List<Transaction> getTransactions() {
+    return transactions;
+  }
+
+  /**
+   * 
+   * @param offset: offset in the interchange
+   * @return 1 based line of the offset
+   */
+  public int line(int offset) {
+    return lineIndex(lineStarts, offset) + 1;
+  }
+
+  /**
+   * 
+   * @param offset: offset in the interchange
+   * @return 0 based column of the offset
+   */
+  public int column(int offset) {
+    return offset - lineStarts[lineIndex(lineStarts, offset)];
+  }
+
+  private static int[] lineStarts(String s) {
+    int count = 1;
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) == '\n') {
+        count++;
+      }
+    }
+    int[] starts = new int[count];
+    int line = 1;
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) == '\n') {
+        starts[line++] = i + 1;
+      }
+    }
+    return starts;
+  }
+
+  private static int lineIndex(int[] lineStarts, int offset) {
+    int low = 0;
+    int high = lineStarts.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (lineStarts[mid] <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * A transaction rebuilt as a standalone message
+   */
+  public static class Transaction {
+    private final int index;
+    private final String content;
+    private final int headerLength;
+    private final int transactionLength;
+    private final int transactionStart;
+    private final int trailerStart;
+    private final int countStart;
+    private final int countLength;
+    private final int rewrittenCountLength;
+    private final int[] lineStarts;
+    private EDIInterchange interchange;
+
+    /**
+     * 
+     * @param index
+     * @param header
+     * @param transaction
+     * @param transactionStart: offset of the transaction in the interchange
+     * @param trailer: trailer of the message, with its control count rewritten
+     * @param trailerStart: offset of the trailer in the interchange
+     * @param trailerLength: length of the trailer in the interchange
+     * @param countStart: offset of the control count in the trailer, -1 when not rewritten
+     * @param countLength: length of the control count in the interchange
+     */
+    private Transaction(int index, String header, String transaction, int transactionStart,
+        String trailer, int trailerStart, int trailerLength, int countStart, int countLength) {
+      this.index = index;
+      this.content = header + transaction + trailer;
+      this.headerLength = header.length();
+      this.transactionLength = transaction.length();
+      this.transactionStart = transactionStart;
+      this.trailerStart = trailerStart;
+      this.countStart = countStart;
+      this.countLength = countLength;
+      this.rewrittenCountLength = trailer.length() - trailerLength + countLength;
+      this.lineStarts = EDIInterchange.lineStarts(content);
+    }
+
+    /**
+     * @return 0 based index of the transaction in the interchange
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * @return the standalone message of the transaction
+     */
+    public String getContent() {
+      return content;
+    }
+
+    public boolean isFirst() {
+      return index == 0;
+    }
+
+    public boolean isLast() {
+      return index == interchange.transactions.size() - 1;
+    }
+
+    /**
+     * @return 1 based line of the transaction header in the interchange
+     */
+    public int getLine() {
+      return interchange.line(transactionStart);
+    }
+
+    /**
+     * 
+     * @param line: 1 based line in the transaction message
+     * @param column: 0 based column in the transaction message
+     * @return true when the position is in the interchange header or trailer, which every
+     *         transaction message repeats
+     */
+    public boolean isEnvelope(int line, int column) {
+      return isHeader(line, column) || isTrailer(line, column);
+    }
+
+    /**
+     * 
+     * @param line: 1 based line in the transaction message
+     * @param column: 0 based column in the transaction message
+     * @return true when the position is in the interchange header
+     */
+    public boolean isHeader(int line, int column) {
+      return localOffset(line, column) < headerLength;
+    }
+
+    /**
+     * 
+     * @param line: 1 based line in the transaction message
+     * @param column: 0 based column in the transaction message
+     * @return true when the position is in the interchange trailer
+     */
+    public boolean isTrailer(int line, int column) {
+      return localOffset(line, column) >= headerLength + transactionLength;
+    }
+
+    /**
+     * 
+     * @param line: 1 based line in the transaction message
+     * @param column: 0 based column in the transaction message
+     * @return offset in the interchange
+     */
+    public int offset(int line, int column) {
+      int offset = localOffset(line, column);
+      if (offset < headerLength) {
+        return offset;
+      }
+      if (offset < headerLength + transactionLength) {
+        return transactionStart + offset - headerLength;
+      }
+      offset -= headerLength + transactionLength;
+      if (countStart < 0 || offset < countStart) {
+        return trailerStart + offset;
+      }
+      if (offset < countStart + rewrittenCountLength) {
+        return trailerStart + countStart + Math.min(offset - countStart, countLength - 1);
+      }
+      return trailerStart + offset - rewrittenCountLength + countLength;
+    }
+
+    private int localOffset(int line, int column) {
+      int lineIndex = Math.max(0, Math.min(line - 1, lineStarts.length - 1));
+      return lineStarts[lineIndex] + Math.max(0, column);
+    }
+
+    /**
+     * 
+     * @param line: 1 based line in the transaction message
+     * @param column: 0 based column in the transaction message
+     * @return 1 based line in the interchange
+     */
+    public int line(int line, int column) {
+      return interchange.line(offset(line, column));
+    }
+
+    /**
+     * 
+     * @param line: 1 based line in the transaction message
+     * @param column: 0 based column in the transaction message
+     * @return 0 based column in the interchange
+     */
+    public int column(int line, int column) {
+      return interchange.column(offset(line, column));
+    }
+  }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.MessageModel;
+import gov.nist.hit.core.domain.MessageParserCommand;
+import gov.nist.hit.core.domain.MessageValidationCommand;
+import gov.nist.hit.core.domain.MessageValidationResult;
+import gov.nist.hit.core.domain.TestContext;
+import gov.nist.hit.core.service.exception.MessageParserException;
+import gov.nist.hit.core.service.exception.MessageValidationException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Parses and validates interchanges made of several transactions, one transaction per worker.
+ * Messages with less than two transactions are parsed and validated as a whole.
+ */
+@Service
+public class EDIInterchangeService {
+
+  @Autowired
+  private EDIMessageParser messageParser;
+
+  @Autowired
+  private EDIMessageValidator messageValidator;
+
+  @Value("${edi.interchange.workers:4}")
+  private int workers;
+
+  private ExecutorService executor;
+
+  @PostConstruct
+  public void init() {
+    executor = Executors.newFixedThreadPool(workers);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  public MessageModel parse(TestContext testContext, MessageParserCommand command)
+      throws MessageParserException {
+    EDIInterchange interchange =
+        command.getContent() != null ? EDIInterchange.split(command.getContent()) : null;
+    if (interchange == null) {
+      return messageParser.parse(testContext, command);
+    }
+    return messageParser.parse(testContext, interchange, executor);
+  }
+
+  public MessageValidationResult validate(TestContext testContext,
+      MessageValidationCommand command) throws MessageValidationException {
+    EDIInterchange interchange =
+        command.getContent() != null ? EDIInterchange.split(command.getContent()) : null;
+    if (interchange == null) {
+      return messageValidator.validate(testContext, command);
+    }
+    return messageValidator.validate(testContext, command, interchange, executor);
+  }
+
+}
@@ -11,11 +11,14 @@
  */
 package gov.nist.hit.core.service.edi;
 
+import gov.nist.hit.core.domain.Coordinate;
 import gov.nist.hit.core.domain.MessageElement;
 import gov.nist.hit.core.domain.MessageModel;
 import gov.nist.hit.core.domain.MessageParserCommand;
 import gov.nist.hit.core.domain.TestContext;
 import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.edi.domain.LazyMessageModel;
+import gov.nist.hit.core.edi.domain.LeafMessageElement;
 import gov.nist.hit.core.edi.domain.MessageElementData;
 import gov.nist.hit.core.edi.domain.util.Util;
 import gov.nist.hit.core.service.MessageParser;
@@ -35,17 +38,22 @@ import hl7.v2.instance.SimpleField;
 import hl7.v2.profile.Profile;
 import hl7.v2.profile.Range;
 import hl7.v2.profile.Req;
-import ncpdp.script.profile.XMLDeserializer;
 
-import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
-
-import org.apache.commons.io.IOUtils;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import scala.collection.Iterator;
 import scala.collection.immutable.List;
 
@@ -58,14 +66,14 @@ public abstract class EDIMessageParser implements MessageParser {
 
   static final Logger logger = LoggerFactory.getLogger(EDIMessageParser.class);
 
-  private final static String SEGMENT = "SEGMENT";
-  private final static String FIELD = "FIELD";
-  private final static String COMPONENT = "COMPONENT";
-  private final static String SUB_COMPONENT = "SUB_COMPONENT";
-  private final static String NODE_SEGMENT = "segment";
-  private final static String NODE_FIELD = "field";
-  private final static String NODE_COMPONENT = "component";
-  private final static String NODE_SUB_COMPONENT = "subcomponent";
+  final static String SEGMENT = "SEGMENT";
+  final static String FIELD = "FIELD";
+  final static String COMPONENT = "COMPONENT";
+  final static String SUB_COMPONENT = "SUB_COMPONENT";
+  final static String NODE_SEGMENT = "segment";
+  final static String NODE_FIELD = "field";
+  final static String NODE_COMPONENT = "component";
+  final static String NODE_SUB_COMPONENT = "subcomponent";
 
   private final static String FIELD_SEPERATOR = "field_separator";
   private final static String COMPONENT_SEPERATOR = "component_separator";
@@ -77,6 +85,27 @@ public abstract class EDIMessageParser implements MessageParser {
   private final static String ESCAPE_SEPERATOR = "escape_separator";
   private final static String DECIMAL_SEPERATOR = "decimal_separator";
 
+  @Autowired
+  private CompiledProfileCache profileCache = new CompiledProfileCache();
+
+  @Autowired
+  private EDIMetrics metrics = new EDIMetrics();
+
+  @Autowired
+  private ParsedMessageCache parsedMessageCache = new ParsedMessageCache();
+
+  /**
+   * Engine building the message model: the profile based JParser or the {@link EDITokenizer}.
+   * The tokenizer does not track groups, see {@link EDITokenModelBuilder}: messages whose profile
+   * has groups are parsed with the JParser in both modes.
+   */
+  public enum ParseMode {
+    JPARSER, TOKENIZER
+  }
+
+  @Value("${edi.parser.mode:JPARSER}")
+  private ParseMode parseMode = ParseMode.JPARSER;
+
   /** 
    *  
    */
@@ -93,11 +122,18 @@ public abstract class EDIMessageParser implements MessageParser {
         }
         String conformanceProfileId = testContext.getConformanceProfile().getSourceId();
         if (!"".equals(ediMessage) && ediMessage != null && !"".equals(conformanceProfileId)) {
-          InputStream profileStream = IOUtils.toInputStream(profileXml);
-          Profile profile = XMLDeserializer.deserialize(profileStream).get();
-          JParser p = new JParser();
-          Message message = p.jparse(ediMessage, profile.messages().apply(conformanceProfileId));
-          return parse(message, ediMessage);
+          Long testContextId = testContext.getId();
+          long start = System.nanoTime();
+          MessageModel model =
+              parseMode == ParseMode.TOKENIZER ? tokenize(testContext, ediMessage, start) : null;
+          if (model == null) {
+            Message message = jparse(testContext, ediMessage, start);
+            long phase = System.nanoTime();
+            model = parse(message, ediMessage);
+            metrics.record(EDIMetrics.PARSE_MODEL, testContextId, conformanceProfileId, phase);
+          }
+          metrics.record(EDIMetrics.PARSE_TOTAL, testContextId, conformanceProfileId, start);
+          return model;
         }
       } else {
         throw new MessageParserException(
@@ -106,13 +142,264 @@ public abstract class EDIMessageParser implements MessageParser {
       }
 
     } catch (RuntimeException e) {
+      metrics.increment(EDIMetrics.PARSE_ERRORS, context.getId(), null);
       throw new MessageParserException(e.getMessage());
     } catch (Exception e) {
+      metrics.increment(EDIMetrics.PARSE_ERRORS, context.getId(), null);
       throw new MessageParserException(e.getMessage());
     }
     return new MessageModel();
   }
 
+  /**
+   * Parses the message and returns its segments only. The fields of a segment are returned by
+   * {@link #expand(String, String)} using the parse id of the model and the node id of the segment.
+   * 
+   * @param context
+   * @param command
+   * @return
+   * @throws MessageParserException
+   */
+  public LazyMessageModel parseSkeleton(TestContext context, MessageParserCommand command)
+      throws MessageParserException {
+    if (!(context instanceof EDITestContext)) {
+      throw new MessageParserException(
+          "Invalid Context Provided. Expected Context is EDITestContext but found "
+              + context.getClass().getSimpleName());
+    }
+    EDITestContext testContext = (EDITestContext) context;
+    String ediMessage = command.getContent();
+    if (testContext.getConformanceProfile().getXml() == null) {
+      throw new MessageParserException("No Conformance Profile Provided to Parse the Message");
+    }
+    if (ediMessage == null || "".equals(ediMessage)) {
+      return new LazyMessageModel();
+    }
+    try {
+      Message message = jparse(testContext, ediMessage, System.nanoTime());
+      java.util.List<Segment> segments = new ArrayList<Segment>();
+      collect(message.children(), segments);
+      ParseContext parseContext = new ParseContext(null);
+      MessageElement root = new MessageElement();
+      for (int i = 0; i < segments.size(); i++) {
+        MessageElementData data = segmentData(segments.get(i), parseContext);
+        data.setNodeId(Integer.toString(i));
+        new MessageElement(NODE_SEGMENT, data, root);
+      }
+      String parseId = parsedMessageCache.put(message, segments);
+      return new LazyMessageModel(root.getChildren(), getDelimeters(message.separators()),
+          parseId);
+    } catch (RuntimeException e) {
+      metrics.increment(EDIMetrics.PARSE_ERRORS, context.getId(), null);
+      throw new MessageParserException(e.getMessage());
+    } catch (Exception e) {
+      metrics.increment(EDIMetrics.PARSE_ERRORS, context.getId(), null);
+      throw new MessageParserException(e.getMessage());
+    }
+  }
+
+  /**
+   * 
+   * @param parseId
+   * @param nodeId: node id of a segment of the skeleton
+   * @return the fields of the segment
+   * @throws MessageParserException
+   */
+  public java.util.List<MessageElement> expand(String parseId, String nodeId)
+      throws MessageParserException {
+    ParsedMessageCache.ParsedMessage parsed = parsedMessageCache.get(parseId);
+    if (parsed == null) {
+      throw new MessageParserException("No parsed message available with id=" + parseId
+          + ", it may have expired");
+    }
+    int index;
+    try {
+      index = Integer.parseInt(nodeId);
+    } catch (NumberFormatException e) {
+      throw new MessageParserException("Invalid node id " + nodeId);
+    }
+    if (index < 0 || index >= parsed.getSegments().size()) {
+      throw new MessageParserException("No node available with id=" + nodeId);
+    }
+    ParseContext parseContext = new ParseContext(null);
+    Segment s = parsed.getSegments().get(index);
+    MessageElement el =
+        new MessageElement(NODE_SEGMENT, segmentData(s, parseContext), new MessageElement());
+    List<Field> children = s.children();
+    if (children != null && !children.isEmpty()) {
+      Iterator<Field> it = children.iterator();
+      while (it.hasNext()) {
+        process(it.next(), el, parseContext);
+      }
+    }
+    return el.getChildren();
+  }
+
+  /**
+   * Parses the transactions of the interchange in parallel and merges their models. Positions are
+   * those of the interchange and the interchange header and trailer appear once.
+   * 
+   * @param context
+   * @param interchange
+   * @param executor
+   * @return
+   * @throws MessageParserException
+   */
+  public MessageModel parse(TestContext context, EDIInterchange interchange,
+      ExecutorService executor) throws MessageParserException {
+    if (!(context instanceof EDITestContext)) {
+      throw new MessageParserException(
+          "Invalid Context Provided. Expected Context is EDITestContext but found "
+              + context.getClass().getSimpleName());
+    }
+    final EDITestContext testContext = (EDITestContext) context;
+    if (testContext.getConformanceProfile().getXml() == null) {
+      throw new MessageParserException("No Conformance Profile Provided to Parse the Message");
+    }
+    long start = System.nanoTime();
+    java.util.List<Future<TransactionModel>> futures =
+        new ArrayList<Future<TransactionModel>>();
+    for (final EDIInterchange.Transaction transaction : interchange.getTransactions()) {
+      futures.add(executor.submit(new Callable<TransactionModel>() {
+        @Override
+        public TransactionModel call() throws Exception {
+          return parseTransaction(testContext, transaction);
+        }
+      }));
+    }
+    try {
+      java.util.List<MessageElement> elements = new ArrayList<MessageElement>();
+      Map<String, String> delimeters = null;
+      for (Future<TransactionModel> future : futures) {
+        TransactionModel model = future.get();
+        elements.addAll(model.elements);
+        if (delimeters == null) {
+          delimeters = model.delimeters;
+        }
+      }
+      metrics.record(EDIMetrics.PARSE_TOTAL, testContext.getId(), testContext
+          .getConformanceProfile().getSourceId(), start);
+      return new MessageModel(elements, delimeters);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MessageParserException(e.getMessage());
+    } catch (ExecutionException e) {
+      metrics.increment(EDIMetrics.PARSE_ERRORS, context.getId(), null);
+      throw new MessageParserException(e.getCause().getMessage());
+    } finally {
+      for (Future<TransactionModel> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private TransactionModel parseTransaction(EDITestContext testContext,
+      EDIInterchange.Transaction transaction) throws Exception {
+    Message message = jparse(testContext, transaction.getContent(), System.nanoTime());
+    ParseContext parseContext = new ParseContext(transaction);
+    MessageElement root = new MessageElement();
+    List<SegOrGroup> children = message.children();
+    if (children != null && !children.isEmpty()) {
+      scala.collection.Iterator<SegOrGroup> it = children.iterator();
+      while (it.hasNext()) {
+        process(it.next(), "", root, parseContext);
+      }
+    }
+    TransactionModel model = new TransactionModel();
+    model.delimeters = getDelimeters(message.separators());
+    boolean header = true;
+    for (MessageElement el : root.getChildren()) {
+      if (!parseContext.isEnvelope(el)) {
+        header = false;
+        model.elements.add(el);
+      } else if (header ? transaction.isFirst() : transaction.isLast()) {
+        model.elements.add(el);
+      }
+    }
+    return model;
+  }
+
+  private Message jparse(EDITestContext testContext, String ediMessage, long start)
+      throws Exception {
+    Long testContextId = testContext.getId();
+    String conformanceProfileId = testContext.getConformanceProfile().getSourceId();
+    Profile profile = profileCache.getProfile(testContext.getConformanceProfile().getXml());
+    long phase =
+        metrics.record(EDIMetrics.PARSE_PROFILE, testContextId, conformanceProfileId, start);
+    JParser p = new JParser();
+    Message message = p.jparse(ediMessage, profile.messages().apply(conformanceProfileId));
+    metrics.record(EDIMetrics.PARSE_MESSAGE, testContextId, conformanceProfileId, phase);
+    return message;
+  }
+
+  /**
+   * Builds the message model from the boundaries found by the {@link EDITokenizer}
+   * 
+   * @return the model, null when the profile of the message has groups
+   */
+  private MessageModel tokenize(EDITestContext testContext, String ediMessage, long start)
+      throws Exception {
+    Long testContextId = testContext.getId();
+    String conformanceProfileId = testContext.getConformanceProfile().getSourceId();
+    Profile profile = profileCache.getProfile(testContext.getConformanceProfile().getXml());
+    long phase =
+        metrics.record(EDIMetrics.PARSE_PROFILE, testContextId, conformanceProfileId, start);
+    hl7.v2.profile.Message messageProfile = profile.messages().apply(conformanceProfileId);
+    if (EDITokenModelBuilder.hasGroups(messageProfile)) {
+      return null;
+    }
+    EDITokenModelBuilder builder = new EDITokenModelBuilder(ediMessage, messageProfile);
+    EDITokenizer.Delimiters delimiters = new EDITokenizer().tokenize(ediMessage, builder);
+    metrics.record(EDIMetrics.PARSE_MESSAGE, testContextId, conformanceProfileId, phase);
+    return new MessageModel(builder.getElements(), getDelimeters(delimiters));
+  }
+
+  private void collect(List<SegOrGroup> children, java.util.List<Segment> segments) {
+    if (children != null && !children.isEmpty()) {
+      scala.collection.Iterator<SegOrGroup> it = children.iterator();
+      while (it.hasNext()) {
+        SegOrGroup e = it.next();
+        if (e instanceof Segment) {
+          segments.add((Segment) e);
+        } else if (e instanceof Group) {
+          collect(((Group) e).children(), segments);
+        }
+      }
+    }
+  }
+
+  public ParseMode getParseMode() {
+    return parseMode;
+  }
+
+  public void setParseMode(ParseMode parseMode) {
+    this.parseMode = parseMode;
+  }
+
+  public ParsedMessageCache getParsedMessageCache() {
+    return parsedMessageCache;
+  }
+
+  public void setParsedMessageCache(ParsedMessageCache parsedMessageCache) {
+    this.parsedMessageCache = parsedMessageCache;
+  }
+
+  public CompiledProfileCache getProfileCache() {
+    return profileCache;
+  }
+
+  public void setProfileCache(CompiledProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
+
+  public EDIMetrics getMetrics() {
+    return metrics;
+  }
+
+  public void setMetrics(EDIMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   /**
    * 
    * @param message
@@ -120,11 +407,12 @@ public abstract class EDIMessageParser implements MessageParser {
    */
   private MessageModel parse(Message message, String ediMessage) {
     MessageElement root = new MessageElement();
+    ParseContext parseContext = new ParseContext(null);
     List<SegOrGroup> children = message.children();
     if (children != null && !children.isEmpty()) {
       scala.collection.Iterator<SegOrGroup> it = children.iterator();
       while (it.hasNext()) {
-        process(it.next(), "", root);
+        process(it.next(), "", root, parseContext);
       }
     }
     return new MessageModel(root.getChildren(), getDelimeters(message.separators()));
@@ -166,6 +454,19 @@ public abstract class EDIMessageParser implements MessageParser {
     return map;
   }
 
+  static Map<String, String> getDelimeters(EDITokenizer.Delimiters delimiters) {
+    Map<String, String> map = new HashMap<String, String>();
+    map.put(FIELD_SEPERATOR, String.valueOf(delimiters.getField()));
+    map.put(COMPONENT_SEPERATOR, String.valueOf(delimiters.getComponent()));
+    map.put(REPETITION_SEPERATOR, String.valueOf(delimiters.getRepetition()));
+    map.put(CONTINUATION_SEPERATOR, "");
+    map.put(SUBCOMPONENT_SEPERATOR, "");
+    map.put(DECIMAL_SEPERATOR, String.valueOf(delimiters.getDecimal()));
+    map.put(ESCAPE_SEPERATOR, String.valueOf(delimiters.getRelease()));
+    map.put(SEGMENT_SEPERATOR, String.valueOf(delimiters.getSegment()));
+    return map;
+  }
+
 /*
   private Map<String, String> getDelimeters(String message) {
     // String dString = "^~&";
@@ -183,26 +484,29 @@ public abstract class EDIMessageParser implements MessageParser {
    * @param c
    * @param parent
    */
-  private void process(Component c, MessageElement parent) {
+  private void process(Component c, MessageElement parent, ParseContext context) {
     Location loc = c.location();
     Req req = c.req();
-    MessageElementData data =
-        new MessageElementData(loc.uidPath(), loc.desc(), req.usage().toString(), -1, null,
-            loc.line(), loc.column()-1, -1, c.position(), c.instance(), null, COMPONENT);
-    MessageElement el = new MessageElement(NODE_COMPONENT, data, parent);
+    String path = context.string(loc.uidPath());
+    String name = context.string(loc.desc());
+    String usage = context.string(req.usage().toString());
+    Coordinate start = context.start(loc);
+    Coordinate end = context.end(loc);
     if (c instanceof SimpleComponent) {
-      SimpleComponent s = (SimpleComponent) c;
-      MessageElementData value =
-          new MessageElementData(loc.uidPath(), loc.desc(), req.usage().toString(), -1, null,
-              loc.line(), loc.column()-1, -1, s.position(), c.instance(), s.value().raw(), COMPONENT);
-      new MessageElement("value", value, el);
+      new LeafMessageElement(NODE_COMPONENT, new MessageElementData(path, name, usage, -1, null,
+          start, end, c.position(), c.instance(), ((SimpleComponent) c).value().raw(),
+          COMPONENT), parent);
     } else {
+      MessageElementData data =
+          new MessageElementData(path, name, usage, -1, null, start, end, c.position(),
+              c.instance(), null, COMPONENT);
+      MessageElement el = new MessageElement(NODE_COMPONENT, data, parent);
       ComplexComponent cc = (ComplexComponent) c;
       List<SimpleComponent> children = cc.children();
       if (children != null && !children.isEmpty()) {
         Iterator<SimpleComponent> it = children.iterator();
         while (it.hasNext()) {
-          process(it.next(), el);
+          process(it.next(), el, context);
         }
       }
     }
@@ -213,18 +517,18 @@ public abstract class EDIMessageParser implements MessageParser {
    * @param s
    * @param parent
    */
-  private void process(SimpleComponent s, MessageElement parent) {
+  private void process(SimpleComponent s, MessageElement parent, ParseContext context) {
     Location loc = s.location();
     Req req = s.req();
+    String path = context.string(loc.uidPath());
+    String name = context.string(loc.desc());
+    String usage = context.string(req.usage().toString());
+    Coordinate start = context.start(loc);
+    Coordinate end = context.end(loc);
     MessageElementData data =
-        new MessageElementData(loc.uidPath(), loc.desc(), req.usage().toString(), -1, null,
-            loc.line(), loc.column()-1, -1, s.position(), s.instance(), null, SUB_COMPONENT);
-    MessageElement el = new MessageElement(NODE_SUB_COMPONENT, data, parent);
-    MessageElementData value =
-        new MessageElementData(loc.uidPath(), loc.desc(), req.usage().toString(), -1, null,
-            loc.line(), loc.column()-1, -1, s.position(), s.instance(), s.value().raw(),
-            SUB_COMPONENT);
-    new MessageElement("value", value, el);
+        new MessageElementData(path, name, usage, -1, null, start, end, s.position(),
+            s.instance(), s.value().raw(), SUB_COMPONENT);
+    new LeafMessageElement(NODE_SUB_COMPONENT, data, parent);
   }
 
   /**
@@ -232,30 +536,31 @@ public abstract class EDIMessageParser implements MessageParser {
    * @param f : field
    * @param parent : parent
    */
-  private void process(Field f, MessageElement parent) {
+  private void process(Field f, MessageElement parent, ParseContext context) {
     Location loc = f.location();
     Req req = f.req();
     Range card = Util.getOption(req.cardinality());
-    String rep = f.toString();
-    MessageElementData data =
-        new MessageElementData(loc.uidPath(), loc.desc(), req.usage().toString(), card.min(),
-            card.max(), loc.line(), loc.column()-1, -1, f.position(), f.instance(), null, FIELD);
-
-    MessageElement el = new MessageElement(NODE_FIELD, data, parent);
+    String path = context.string(loc.uidPath());
+    String name = context.string(loc.desc());
+    String usage = context.string(req.usage().toString());
+    String max = context.string(card.max());
+    Coordinate start = context.start(loc);
+    Coordinate end = context.end(loc);
     if (f instanceof SimpleField) {
-      SimpleField s = (SimpleField) f;
-      MessageElementData value =
-          new MessageElementData(loc.uidPath(), loc.desc(), req.usage().toString(), card.min(),
-              card.max(), loc.line(), loc.column()-1, -1, f.position(), f.instance(),
-              s.value().raw(), FIELD);
-      new MessageElement("value", value, el);
+      new LeafMessageElement(NODE_FIELD, new MessageElementData(path, name, usage, card.min(),
+          max, start, end, f.position(), f.instance(), ((SimpleField) f).value().raw(), FIELD),
+          parent);
     } else {
+      MessageElementData data =
+          new MessageElementData(path, name, usage, card.min(), max, start, end, f.position(),
+              f.instance(), null, FIELD);
+      MessageElement el = new MessageElement(NODE_FIELD, data, parent);
       ComplexField c = (ComplexField) f;
       List<Component> children = c.children();
       if (children != null && !children.isEmpty()) {
         Iterator<Component> it = children.iterator();
         while (it.hasNext()) {
-          process(it.next(), el);
+          process(it.next(), el, context);
         }
       }
 
@@ -268,24 +573,20 @@ public abstract class EDIMessageParser implements MessageParser {
    * @param parentName
    * @param parent
    */
-  private void process(SegOrGroup e, String parentName, MessageElement parent) {
+  private void process(SegOrGroup e, String parentName, MessageElement parent,
+      ParseContext context) {
     if (e == null) {
       return;
     }
     if (e instanceof Segment) {
       Segment s = (Segment) e;
-      Location loc = s.location();
-      Req req = s.req();
-      Range card = Util.getOption(req.cardinality());
-      MessageElementData data =
-          new MessageElementData(loc.uidPath(), loc.desc(), req.usage().toString(), card.min(),
-              card.max(), loc.line(), loc.column()-1, -1, s.position(), s.instance(), null, SEGMENT);
-      MessageElement el = new MessageElement(NODE_SEGMENT, data, parent);
+      MessageElement el = new MessageElement(NODE_SEGMENT, segmentData(s, context), parent);
+      context.segment(el, s.location());
       List<Field> children = s.children();
       if (children != null && !children.isEmpty()) {
         Iterator<Field> it = children.iterator();
         while (it.hasNext()) {
-          process(it.next(), el);
+          process(it.next(), el, context);
         }
       }
 
@@ -295,10 +596,84 @@ public abstract class EDIMessageParser implements MessageParser {
       if (children != null && !children.isEmpty()) {
         scala.collection.Iterator<SegOrGroup> it = children.iterator();
         while (it.hasNext()) {
-          process(it.next(), "", parent);
+          process(it.next(), "", parent, context);
         }
       }
     }
   }
 
+  private MessageElementData segmentData(Segment s, ParseContext context) {
+    Location loc = s.location();
+    Req req = s.req();
+    Range card = Util.getOption(req.cardinality());
+    return new MessageElementData(context.string(loc.uidPath()), context.string(loc.desc()),
+        context.string(req.usage().toString()), card.min(), context.string(card.max()),
+        context.start(loc), context.end(loc), s.position(), s.instance(), null, SEGMENT);
+  }
+
+  private static class TransactionModel {
+    private final java.util.List<MessageElement> elements = new ArrayList<MessageElement>();
+    private Map<String, String> delimeters;
+  }
+
+  /**
+   * State of the construction of a message model: shares the equal path, description and usage
+   * strings of the elements and maps their positions when the message is a transaction of an
+   * interchange
+   */
+  static class ParseContext {
+    private final Map<String, String> strings = new HashMap<String, String>();
+    private final EDIInterchange.Transaction transaction;
+    private final Set<MessageElement> envelope =
+        Collections.newSetFromMap(new IdentityHashMap<MessageElement, Boolean>());
+
+    /**
+     * 
+     * @param transaction: transaction the message is built from, null for a whole message
+     */
+    ParseContext(EDIInterchange.Transaction transaction) {
+      this.transaction = transaction;
+    }
+
+    String string(String s) {
+      if (s == null) {
+        return null;
+      }
+      String pooled = strings.get(s);
+      if (pooled == null) {
+        strings.put(s, s);
+        return s;
+      }
+      return pooled;
+    }
+
+    Coordinate start(Location loc) {
+      if (transaction == null) {
+        return new Coordinate(loc.line(), loc.column() - 1);
+      }
+      return new Coordinate(transaction.line(loc.line(), loc.column() - 1), transaction.column(
+          loc.line(), loc.column() - 1));
+    }
+
+    Coordinate end(Location loc) {
+      if (transaction == null) {
+        return new Coordinate(loc.line(), -1);
+      }
+      return new Coordinate(transaction.line(loc.line(), loc.column() - 1), -1);
+    }
+
+    /**
+     * Remembers the segments of the interchange header and trailer
+     */
+    void segment(MessageElement el, Location loc) {
+      if (transaction != null && transaction.isEnvelope(loc.line(), loc.column() - 1)) {
+        envelope.add(el);
+      }
+    }
+
+    boolean isEnvelope(MessageElement el) {
+      return envelope.contains(el);
+    }
+  }
+
 }
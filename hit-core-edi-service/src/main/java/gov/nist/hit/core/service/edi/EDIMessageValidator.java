@@ -14,9 +14,12 @@ package gov.nist.hit.core.service.edi;
 import gov.nist.healthcare.unified.enums.Context;
 import gov.nist.healthcare.unified.model.EnhancedReport;
 import gov.nist.healthcare.unified.proxy.ValidationProxy;
+import gov.nist.hit.core.domain.Constraints;
 import gov.nist.hit.core.domain.MessageValidationCommand;
 import gov.nist.hit.core.domain.MessageValidationResult;
 import gov.nist.hit.core.domain.TestContext;
+import gov.nist.hit.core.domain.VocabularyLibrary;
+import gov.nist.hit.core.edi.domain.EDIMessageValidationResult;
 import gov.nist.hit.core.edi.domain.EDITestContext;
 import gov.nist.hit.core.service.MessageValidator;
 import gov.nist.hit.core.service.ValidationLogService;
@@ -28,16 +31,29 @@ import hl7.v2.validation.content.DefaultConformanceContext;
 import hl7.v2.validation.vs.ValueSetLibrary;
 import hl7.v2.validation.vs.ValueSetLibraryImpl;
 import org.apache.commons.io.IOUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 public abstract class EDIMessageValidator implements MessageValidator {
@@ -47,9 +63,37 @@ public abstract class EDIMessageValidator implements MessageValidator {
   @Value("${app.organization.name}")
   private String organizationName;
 
+  /**
+   * When true, the html report is rendered with every validation. Otherwise it is rendered
+   * through the {@link ReportCache} the first time it is requested, with the report id of the
+   * result.
+   */
+  @Value("${edi.validation.report.html:true}")
+  private boolean renderHtml;
+
   @Autowired
   private ValidationLogService validationLogService;
 
+  @Autowired(required = false)
+  private ValidationLogWriter validationLogWriter;
+
+  @Autowired
+  private CompiledProfileCache profileCache;
+
+  @Autowired
+  private ConformanceContextCache conformanceContextCache;
+
+  @Autowired
+  private ValueSetLibraryCache valueSetLibraryCache;
+
+  @Autowired
+  private ReportCache reportCache;
+
+  @Autowired
+  private EDIMetrics metrics = new EDIMetrics();
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+
   @Bean
   public EDIMessageValidator ediMessageValidator() {
     EDIMessageValidatorImpl validator = new EDIMessageValidatorImpl();
@@ -61,53 +105,288 @@ public abstract class EDIMessageValidator implements MessageValidator {
   public MessageValidationResult validate(TestContext testContext, MessageValidationCommand command)
           throws MessageValidationException {
       EnhancedReport report = generateReport(testContext, command);
-      Map<String, String> nav = command.getNav();
-      if (nav != null && !nav.isEmpty()) {
-        report.setTestCase(nav.get("testPlan"), nav.get("testGroup"), nav.get("testCase"),
-                nav.get("testStep"));
-      }
-      validationLogService.generateAndSave(command.getUserId(), testContext, report);
+      String profileId = profileId(testContext);
+      long start = System.nanoTime();
+      log(testContext, command, report);
+      start = metrics.record(EDIMetrics.VALIDATION_LOG, testContext.getId(), profileId, start);
     try {
-
-      return new MessageValidationResult(
-              report.to("json").toString(),
-              report.render("report", null));
+      MessageValidationResult result = result(report);
+      metrics.record(EDIMetrics.VALIDATION_RENDER, testContext.getId(), profileId, start);
+      return result;
     } catch (Exception e) {
       e.printStackTrace();
     }
     return null;
   }
 
+  private MessageValidationResult result(EnhancedReport report) throws Exception {
+    ReportCache.RenderedReport rendered = reportCache.put(report);
+    return new EDIMessageValidationResult(rendered.getJson(),
+            renderHtml ? rendered.getHtml() : null, rendered.getId());
+  }
+
+
+  /**
+   * Validates the message and writes the json report to the output stream. The validation library
+   * builds the report as a whole; its entries are then written one by one through a
+   * {@link JsonGenerator}, without rendering the report to a single string.
+   */
+  public void validate(TestContext testContext, MessageValidationCommand command, OutputStream out)
+          throws MessageValidationException, IOException {
+    EnhancedReport report = generateReport(testContext, command);
+    String profileId = profileId(testContext);
+    long start = System.nanoTime();
+    log(testContext, command, report);
+    start = metrics.record(EDIMetrics.VALIDATION_LOG, testContext.getId(), profileId, start);
+    JsonGenerator generator = jsonFactory.createGenerator(out, JsonEncoding.UTF8);
+    try {
+      Object json = report.to(ReportCache.JSON);
+      if (json instanceof JSONObject) {
+        write(json, generator);
+      } else {
+        JsonParser parser = jsonFactory.createParser(json.toString());
+        try {
+          parser.nextToken();
+          generator.copyCurrentStructure(parser);
+        } finally {
+          parser.close();
+        }
+      }
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new MessageValidationException(e.getLocalizedMessage());
+    }
+    generator.flush();
+    metrics.record(EDIMetrics.VALIDATION_RENDER, testContext.getId(), profileId, start);
+  }
+
+  private void write(Object json, JsonGenerator generator) throws Exception {
+    if (json instanceof JSONObject) {
+      JSONObject object = (JSONObject) json;
+      generator.writeStartObject();
+      String[] names = JSONObject.getNames(object);
+      if (names != null) {
+        for (String name : names) {
+          generator.writeFieldName(name);
+          write(object.get(name), generator);
+        }
+      }
+      generator.writeEndObject();
+    } else if (json instanceof JSONArray) {
+      JSONArray array = (JSONArray) json;
+      generator.writeStartArray();
+      for (int i = 0; i < array.length(); i++) {
+        write(array.get(i), generator);
+      }
+      generator.writeEndArray();
+    } else if (json == null || JSONObject.NULL.equals(json)) {
+      generator.writeNull();
+    } else if (json instanceof Boolean) {
+      generator.writeBoolean((Boolean) json);
+    } else if (json instanceof Integer || json instanceof Long) {
+      generator.writeNumber(((Number) json).longValue());
+    } else if (json instanceof Double || json instanceof Float) {
+      generator.writeNumber(((Number) json).doubleValue());
+    } else if (json instanceof Number) {
+      generator.writeNumber(json.toString());
+    } else {
+      generator.writeString(json.toString());
+    }
+  }
+
+  private void log(TestContext testContext, MessageValidationCommand command,
+          EnhancedReport report) {
+    Map<String, String> nav = command.getNav();
+    if (nav != null && !nav.isEmpty()) {
+      report.setTestCase(nav.get("testPlan"), nav.get("testGroup"), nav.get("testCase"),
+              nav.get("testStep"));
+    }
+    if (validationLogWriter != null) {
+      validationLogWriter.write(command, testContext, report);
+    } else {
+      validationLogService.generateAndSave(command.getUserId(), testContext, report);
+    }
+  }
 
   public EnhancedReport generateReport(TestContext testContext, MessageValidationCommand command)
           throws MessageValidationException {
+    return generateReport(testContext, command, null);
+  }
+
+  /**
+   * Validates the transactions of the interchange in parallel and merges their reports into one
+   * report of the interchange, logged once. The lines and columns are those of the interchange and
+   * the entries of the interchange header and trailer, which every transaction message repeats,
+   * are reported once.
+   */
+  public MessageValidationResult validate(final TestContext testContext,
+          final MessageValidationCommand command, EDIInterchange interchange,
+          ExecutorService executor) throws MessageValidationException {
+    List<Future<EnhancedReport>> futures = new ArrayList<Future<EnhancedReport>>();
+    for (final EDIInterchange.Transaction transaction : interchange.getTransactions()) {
+      futures.add(executor.submit(new Callable<EnhancedReport>() {
+        @Override
+        public EnhancedReport call() throws Exception {
+          return generateReport(testContext, command, transaction.getContent());
+        }
+      }));
+    }
+    try {
+      Object merged = null;
+      for (int i = 0; i < futures.size(); i++) {
+        EDIInterchange.Transaction transaction = interchange.getTransactions().get(i);
+        Object json = futures.get(i).get().to(ReportCache.JSON);
+        JSONObject reportJson =
+                json instanceof JSONObject ? (JSONObject) json : new JSONObject(json.toString());
+        Object mapped = mapPositions(reportJson, transaction);
+        merged = merged == null ? mapped : merge(merged, mapped);
+      }
+      EnhancedReport report = EnhancedReport.from(ReportCache.JSON, merged.toString());
+      String profileId = profileId(testContext);
+      long start = System.nanoTime();
+      log(testContext, command, report);
+      start = metrics.record(EDIMetrics.VALIDATION_LOG, testContext.getId(), profileId, start);
+      MessageValidationResult result = result(report);
+      metrics.record(EDIMetrics.VALIDATION_RENDER, testContext.getId(), profileId, start);
+      return result;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new MessageValidationException(e.getLocalizedMessage());
+    } catch (ExecutionException e) {
+      throw new MessageValidationException(e.getCause().getLocalizedMessage());
+    } catch (Exception e) {
+      throw new MessageValidationException(e.getLocalizedMessage());
+    } finally {
+      for (Future<EnhancedReport> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Replaces the line and column (1 based) of the report entries of a transaction by those of the
+   * interchange. The entries of the interchange header are only kept for the first transaction and
+   * those of the interchange trailer for the last one.
+   */
+  private Object mapPositions(Object json, EDIInterchange.Transaction transaction)
+          throws Exception {
+    if (json instanceof JSONObject) {
+      JSONObject object = (JSONObject) json;
+      String[] names = JSONObject.getNames(object);
+      if (names == null) {
+        return object;
+      }
+      if (isPositioned(object)) {
+        int line = object.getInt("line");
+        int column = object.getInt("column");
+        object.put("line", transaction.line(line, column - 1));
+        object.put("column", transaction.column(line, column - 1) + 1);
+      }
+      for (String name : names) {
+        object.put(name, mapPositions(object.get(name), transaction));
+      }
+    } else if (json instanceof JSONArray) {
+      JSONArray array = (JSONArray) json;
+      JSONArray mapped = new JSONArray();
+      for (int i = 0; i < array.length(); i++) {
+        Object entry = array.get(i);
+        if (!isRepeatedEnvelope(entry, transaction)) {
+          mapped.put(mapPositions(entry, transaction));
+        }
+      }
+      return mapped;
+    }
+    return json;
+  }
+
+  private boolean isPositioned(JSONObject object) throws Exception {
+    return object.has("line") && object.has("column") && object.get("line") instanceof Number
+            && object.get("column") instanceof Number && object.getInt("line") > 0;
+  }
+
+  private boolean isRepeatedEnvelope(Object json, EDIInterchange.Transaction transaction)
+          throws Exception {
+    if (!(json instanceof JSONObject) || !isPositioned((JSONObject) json)) {
+      return false;
+    }
+    int line = ((JSONObject) json).getInt("line");
+    int column = ((JSONObject) json).getInt("column") - 1;
+    return (!transaction.isFirst() && transaction.isHeader(line, column))
+            || (!transaction.isLast() && transaction.isTrailer(line, column));
+  }
+
+  /**
+   * Adds the entries of a transaction report to the report of the previous transactions. Entries
+   * are all kept, the repeated interchange header and trailer are already left out by
+   * {@link #mapPositions}. The summary counts are summed and the other values are those of the
+   * first report.
+   */
+  private Object merge(Object into, Object from) throws Exception {
+    if (into instanceof JSONObject && from instanceof JSONObject) {
+      JSONObject object = (JSONObject) into;
+      String[] names = JSONObject.getNames((JSONObject) from);
+      if (names != null) {
+        for (String name : names) {
+          Object value = ((JSONObject) from).get(name);
+          if (!object.has(name)) {
+            object.put(name, value);
+          } else if (isCount(name, object.get(name), value)) {
+            object.put(name, ((Number) object.get(name)).longValue()
+                    + ((Number) value).longValue());
+          } else {
+            object.put(name, merge(object.get(name), value));
+          }
+        }
+      }
+    } else if (into instanceof JSONArray && from instanceof JSONArray) {
+      JSONArray array = (JSONArray) into;
+      JSONArray added = (JSONArray) from;
+      for (int i = 0; i < added.length(); i++) {
+        array.put(added.get(i));
+      }
+    }
+    return into;
+  }
+
+  private boolean isCount(String name, Object into, Object from) {
+    return name.toLowerCase().endsWith("count") && into instanceof Number
+            && from instanceof Number;
+  }
+
+  private EnhancedReport generateReport(TestContext testContext, MessageValidationCommand command,
+          String content) throws MessageValidationException {
     try {
       if (testContext instanceof EDITestContext) {
         EDITestContext v2TestContext = (EDITestContext) testContext;
         String contextType = command.getContextType();
-        String message = getMessageContent(command);
+        String message = content != null ? content : getMessageContent(command);
         String conformanceProfielId = v2TestContext.getConformanceProfile().getSourceId();
         String integrationProfileXml =
                 v2TestContext.getConformanceProfile().getXml();
-        String valueSets = v2TestContext.getVocabularyLibrary().getXml();
-        String c1 = v2TestContext.getConstraints().getXml();
-        String c2 =
-                v2TestContext.getAddditionalConstraints() != null ? v2TestContext
-                        .getAddditionalConstraints().getXml() : null;
-        InputStream c1Stream = c1 != null ? IOUtils.toInputStream(c1) : null;
-        InputStream c2Stream = c2 != null ? IOUtils.toInputStream(c2) : null;
-        List<InputStream> cStreams = new ArrayList<InputStream>();
-        if (c1Stream != null)
-          cStreams.add(c1Stream);
-        if (c2Stream != null)
-          cStreams.add(c2Stream);
-        ConformanceContext c = getConformanceContext(cStreams);
-        ValueSetLibrary vsLib =
-                valueSets != null ? getValueSetLibrary(IOUtils.toInputStream(valueSets)) : null;
+        Long testContextId = v2TestContext.getId();
+        long start = System.nanoTime();
+        ConformanceContext c =
+                getConformanceContext(v2TestContext.getConstraints(),
+                        v2TestContext.getAddditionalConstraints());
+        long conformanceContextEnd = metrics.record(EDIMetrics.VALIDATION_CONFORMANCE_CONTEXT,
+                testContextId, conformanceProfielId, start);
+        ValueSetLibrary vsLib = getValueSetLibrary(v2TestContext.getVocabularyLibrary());
+        long valueSetLibraryEnd = metrics.record(EDIMetrics.VALIDATION_VALUE_SET_LIBRARY,
+                testContextId, conformanceProfielId, conformanceContextEnd);
         ValidationProxy vp = new ValidationProxy(getValidationServiceName(), getProviderName());
         EnhancedReport report =
                 vp.validate(message, integrationProfileXml, c, vsLib, conformanceProfielId,
                         Context.valueOf(contextType));
+        long validateEnd = metrics.record(EDIMetrics.VALIDATION_VALIDATE, testContextId,
+                conformanceProfielId, valueSetLibraryEnd);
+        metrics.record(EDIMetrics.VALIDATION_TOTAL, testContextId, conformanceProfielId, start);
+        if (statLog.isInfoEnabled()) {
+          statLog.info("testContext=" + testContextId + " profile=" + conformanceProfielId
+                  + " conformanceContextMs=" + millis(conformanceContextEnd - start)
+                  + " valueSetLibraryMs=" + millis(valueSetLibraryEnd - conformanceContextEnd)
+                  + " validateMs=" + millis(validateEnd - valueSetLibraryEnd));
+        }
         if (report != null) {
           Map<String, String> nav = command.getNav();
           if (nav != null && !nav.isEmpty()) {
@@ -119,26 +398,147 @@ public abstract class EDIMessageValidator implements MessageValidator {
       }
       throw new MessageValidationException();
     } catch (MessageException e) {
+      metrics.increment(EDIMetrics.VALIDATION_ERRORS, testContext.getId(), null);
       throw new MessageValidationException(e.getLocalizedMessage());
     } catch (RuntimeException e) {
+      metrics.increment(EDIMetrics.VALIDATION_ERRORS, testContext.getId(), null);
       throw new MessageValidationException(e.getLocalizedMessage());
     } catch (Exception e) {
+      metrics.increment(EDIMetrics.VALIDATION_ERRORS, testContext.getId(), null);
       throw new MessageValidationException(e.getLocalizedMessage());
     }
   }
 
+  private static long millis(long nanos) {
+    return nanos / 1000000;
+  }
+
+  private static String profileId(TestContext testContext) {
+    return testContext instanceof EDITestContext
+            && ((EDITestContext) testContext).getConformanceProfile() != null
+            ? ((EDITestContext) testContext).getConformanceProfile().getSourceId() : null;
+  }
+
+
+  /**
+   * Builds the profile, conformance context and value set library of the test context into the
+   * caches so that following validations of the test context do not pay for them
+   */
+  public void loadResources(TestContext testContext) throws MessageValidationException {
+    if (!(testContext instanceof EDITestContext)) {
+      return;
+    }
+    try {
+      EDITestContext v2TestContext = (EDITestContext) testContext;
+      if (v2TestContext.getConformanceProfile() != null
+              && v2TestContext.getConformanceProfile().getXml() != null) {
+        profileCache.getProfile(v2TestContext.getConformanceProfile().getXml());
+      }
+      getConformanceContext(v2TestContext.getConstraints(),
+              v2TestContext.getAddditionalConstraints());
+      getValueSetLibrary(v2TestContext.getVocabularyLibrary());
+    } catch (Exception e) {
+      throw new MessageValidationException(e.getLocalizedMessage());
+    }
+  }
+
+  /**
+   * Returns the conformance context of the constraints, building it only if it is not in the
+   * conformance context cache yet
+   */
+  protected ConformanceContext getConformanceContext(final Constraints constraints,
+          final Constraints additionalConstraints) throws Exception {
+    return conformanceContextCache.get(constraints, additionalConstraints,
+            new BoundedCache.Loader<String, ConformanceContext>() {
+              @Override
+              public ConformanceContext load(String key) throws Exception {
+                List<InputStream> cStreams = new ArrayList<InputStream>();
+                if (constraints != null && constraints.getXml() != null)
+                  cStreams.add(IOUtils.toInputStream(constraints.getXml()));
+                if (additionalConstraints != null && additionalConstraints.getXml() != null)
+                  cStreams.add(IOUtils.toInputStream(additionalConstraints.getXml()));
+                return getConformanceContext(cStreams);
+              }
+            });
+  }
 
   protected ConformanceContext getConformanceContext(List<InputStream> confContexts) {
     ConformanceContext c = DefaultConformanceContext.apply(confContexts).get();
     return c;
   }
 
+  /**
+   * Returns the compiled value set library of the vocabulary library, compiling it only if it is
+   * not in the value set library cache yet
+   */
+  protected ValueSetLibrary getValueSetLibrary(final VocabularyLibrary vocabularyLibrary)
+          throws Exception {
+    if (vocabularyLibrary == null || vocabularyLibrary.getXml() == null) {
+      return null;
+    }
+    return valueSetLibraryCache.get(vocabularyLibrary,
+            new BoundedCache.Loader<String, ValueSetLibrary>() {
+              @Override
+              public ValueSetLibrary load(String key) throws Exception {
+                return getValueSetLibrary(IOUtils.toInputStream(vocabularyLibrary.getXml()));
+              }
+            });
+  }
+
   protected ValueSetLibrary getValueSetLibrary(InputStream vsLibXML) {
     ValueSetLibrary valueSetLibrary = ValueSetLibraryImpl.apply(vsLibXML).get();
     return valueSetLibrary;
   }
 
 
+  public CompiledProfileCache getProfileCache() {
+    return profileCache;
+  }
+
+  public void setProfileCache(CompiledProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
+
+  public ConformanceContextCache getConformanceContextCache() {
+    return conformanceContextCache;
+  }
+
+  public void setConformanceContextCache(ConformanceContextCache conformanceContextCache) {
+    this.conformanceContextCache = conformanceContextCache;
+  }
+
+  public ValueSetLibraryCache getValueSetLibraryCache() {
+    return valueSetLibraryCache;
+  }
+
+  public void setValueSetLibraryCache(ValueSetLibraryCache valueSetLibraryCache) {
+    this.valueSetLibraryCache = valueSetLibraryCache;
+  }
+
+  public ReportCache getReportCache() {
+    return reportCache;
+  }
+
+  public void setReportCache(ReportCache reportCache) {
+    this.reportCache = reportCache;
+  }
+
+  public boolean isRenderHtml() {
+    return renderHtml;
+  }
+
+  public void setRenderHtml(boolean renderHtml) {
+    this.renderHtml = renderHtml;
+  }
+
+  public EDIMetrics getMetrics() {
+    return metrics;
+  }
+
+  public void setMetrics(EDIMetrics metrics) {
+    this.metrics = metrics;
+  }
+
   public static String getMessageContent(MessageValidationCommand command) throws MessageException {
     String message = command.getContent();
     if (message == null) {
@@ -0,0 +1,224 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Latency timers and counters of the parse and validation phases, tagged by test context and
+ * conformance profile. Timers keep a log-linear histogram (4 buckets per power of 2 microseconds)
+ * from which percentiles are estimated within 25%.
+ * 
+ * The bean is used by {@link EDIMessageParser} and {@link EDIMessageValidator}.
+ */
+@Service
+public class EDIMetrics {
+
+  public static final String PARSE_PROFILE = "parse.profile";
+  public static final String PARSE_MESSAGE = "parse.message";
+  public static final String PARSE_MODEL = "parse.model";
+  public static final String PARSE_TOTAL = "parse.total";
+  public static final String PARSE_ERRORS = "parse.errors";
+  public static final String VALIDATION_CONFORMANCE_CONTEXT = "validation.conformanceContext";
+  public static final String VALIDATION_VALUE_SET_LIBRARY = "validation.valueSetLibrary";
+  public static final String VALIDATION_VALIDATE = "validation.validate";
+  public static final String VALIDATION_TOTAL = "validation.total";
+  public static final String VALIDATION_RENDER = "validation.render";
+  public static final String VALIDATION_LOG = "validation.log";
+  public static final String VALIDATION_ERRORS = "validation.errors";
+
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+  private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+  /**
+   * Records the time elapsed since startNanos
+   * 
+   * @param phase
+   * @param testContextId
+   * @param profileId
+   * @param startNanos: {@link System#nanoTime()} at the start of the phase
+   * @return {@link System#nanoTime()} at the end of the phase, to chain the next phase
+   */
+  public long record(String phase, Long testContextId, String profileId, long startNanos) {
+    long end = System.nanoTime();
+    String key = key(phase, testContextId, profileId);
+    Timer timer = timers.get(key);
+    if (timer == null) {
+      timer = new Timer(phase, testContextId, profileId);
+      Timer existing = timers.putIfAbsent(key, timer);
+      if (existing != null) {
+        timer = existing;
+      }
+    }
+    timer.record(end - startNanos);
+    return end;
+  }
+
+  public void increment(String name, Long testContextId, String profileId) {
+    String key = key(name, testContextId, profileId);
+    Counter counter = counters.get(key);
+    if (counter == null) {
+      counter = new Counter(name, testContextId, profileId);
+      Counter existing = counters.putIfAbsent(key, counter);
+      if (existing != null) {
+        counter = existing;
+      }
+    }
+    counter.value.incrementAndGet();
+  }
+
+  /**
+   * 
+   * @return the current value of all the timers and counters
+   */
+  public List<Map<String, Object>> snapshot() {
+    List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+    for (Timer timer : timers.values()) {
+      result.add(timer.snapshot());
+    }
+    for (Counter counter : counters.values()) {
+      Map<String, Object> values = tags(counter.name, counter.testContextId, counter.profileId);
+      values.put("count", counter.value.get());
+      result.add(values);
+    }
+    return result;
+  }
+
+  public void reset() {
+    timers.clear();
+    counters.clear();
+  }
+
+  private static String key(String name, Long testContextId, String profileId) {
+    return name + "|" + testContextId + "|" + profileId;
+  }
+
+  private static Map<String, Object> tags(String name, Long testContextId, String profileId) {
+    Map<String, Object> values = new LinkedHashMap<String, Object>();
+    values.put("name", name);
+    values.put("testContext", testContextId);
+    values.put("profile", profileId);
+    return values;
+  }
+
+  private static class Counter {
+
+    private final String name;
+    private final Long testContextId;
+    private final String profileId;
+    private final AtomicLong value = new AtomicLong();
+
+    Counter(String name, Long testContextId, String profileId) {
+      this.name = name;
+      this.testContextId = testContextId;
+      this.profileId = profileId;
+    }
+  }
+
+  private static class Timer {
+
+    private static final int MAX_OCTAVE = 36;
+    private static final int BUCKETS = 4 * MAX_OCTAVE;
+
+    private final String phase;
+    private final Long testContextId;
+    private final String profileId;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    Timer(String phase, Long testContextId, String profileId) {
+      this.phase = phase;
+      this.testContextId = testContextId;
+      this.profileId = profileId;
+    }
+
+    void record(long nanos) {
+      count.incrementAndGet();
+      totalNanos.addAndGet(nanos);
+      long max;
+      while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+        // retry
+      }
+      buckets.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /**
+     * Buckets 0 to 3 hold 0 to 3 microseconds, then each power of 2 is split in 4 buckets
+     */
+    static int bucket(long micros) {
+      if (micros < 4) {
+        return (int) Math.max(micros, 0);
+      }
+      int octave = 63 - Long.numberOfLeadingZeros(micros);
+      int sub = (int) ((micros >> (octave - 2)) & 3);
+      return Math.min(4 * (octave - 1) + sub, BUCKETS - 1);
+    }
+
+    static long upperBound(int bucket) {
+      if (bucket < 4) {
+        return bucket + 1;
+      }
+      int octave = bucket / 4 + 1;
+      return (5L + bucket % 4) << (octave - 2);
+    }
+
+    Map<String, Object> snapshot() {
+      Map<String, Object> values = tags(phase, testContextId, profileId);
+      long n = count.get();
+      values.put("count", n);
+      values.put("totalMillis", totalNanos.get() / 1000000.0);
+      values.put("meanMillis", n > 0 ? totalNanos.get() / 1000000.0 / n : 0);
+      values.put("maxMillis", maxNanos.get() / 1000000.0);
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets.get(i);
+        total += counts[i];
+      }
+      for (int p = 0; p < PERCENTILES.length; p++) {
+        values.put(PERCENTILE_NAMES[p] + "Millis", percentile(counts, total, PERCENTILES[p]));
+      }
+      return values;
+    }
+
+    private double percentile(long[] counts, long total, double percentile) {
+      if (total == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(percentile * total);
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(upperBound(i) / 1000.0, maxNanos.get() / 1000000.0);
+        }
+      }
+      return maxNanos.get() / 1000000.0;
+    }
+  }
+
+}
@@ -19,25 +19,18 @@ import gov.nist.hit.core.service.ProfileParser;
 import gov.nist.hit.core.service.exception.ProfileParserException;
 import gov.nist.hit.core.service.impl.ConstraintsParserImpl;
 import hl7.v2.profile.*;
-import ncpdp.script.profile.XMLDeserializer;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
 import scala.collection.Iterator;
 import scala.collection.immutable.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPathExpressionException;
-import java.io.IOException;
-import java.io.InputStream;
 import java.io.StringReader;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 /**
@@ -51,12 +44,9 @@ public abstract class EDIProfileParser extends ProfileParser {
 
   public EDIProfileParser() {}
 
-  private final Map<String, Profile> cachedIntegrationProfilesMap = new HashMap<String, Profile>();
-  private Map<String, ProfileElement> segmentsMap;
-  private Map<String, ProfileElement> datatypesMap;
-  private Constraints conformanceStatements = null;
-  private Constraints predicates = null;
-  ConstraintsParserImpl constraintsParser = new ConstraintsParserImpl();
+  private CompiledProfileCache profileCache = new CompiledProfileCache();
+  private ForkJoinPool forkJoinPool;
+  private boolean sharedDatatypes;
 
   @Override
   /**
@@ -67,15 +57,7 @@ public abstract class EDIProfileParser extends ProfileParser {
   public ProfileModel parse(String integrationProfileXml, String conformanceProfileId,
                             String... constraints) throws ProfileParserException {
     try {
-      Profile p = null;
-      String integrationProfileId = integrationProfileId(integrationProfileXml);
-      if (cachedIntegrationProfilesMap.containsKey(integrationProfileId)) {
-        p = cachedIntegrationProfilesMap.get(integrationProfileId);
-      } else {
-        InputStream profileStream = IOUtils.toInputStream(integrationProfileXml);
-        p = XMLDeserializer.deserialize(profileStream).get();
-        cachedIntegrationProfilesMap.put(integrationProfileId, p);
-      }
+      Profile p = profileCache.getProfile(integrationProfileXml);
       Message m = p.messages().apply(conformanceProfileId);
       return parse(m, constraints);
     } catch (Exception e) {
@@ -108,49 +90,58 @@ public abstract class EDIProfileParser extends ProfileParser {
       
       Message m = (Message) conformanceProfile;
 
-      this.segmentsMap = new LinkedHashMap<String, ProfileElement>();
-      this.datatypesMap = new LinkedHashMap<String, ProfileElement>();
-
-      model = new ProfileModel();
+      ParseSession session = new ParseSession();
+      ProfileModel model = session.model;
       ProfileElement message = new ProfileElement("FULL");
       message.setType(TYPE_MESSAGE);
       message.setRelevent(true);
       message.setId(m.id());
       model.setMessage(message);
-      this.conformanceStatements = constraintsParser.confStatements(c1Xml);
-      this.predicates = constraintsParser.predicates(c1Xml);
+      ConstraintsParserImpl constraintsParser = new ConstraintsParserImpl();
+      session.conformanceStatements = constraintsParser.confStatements(c1Xml);
+      session.predicates = constraintsParser.predicates(c1Xml);
       if (c2Xml != null) {
         Constraints conformanceStatements2 = constraintsParser.confStatements(c2Xml);
         if (conformanceStatements2 != null) {
-          this.conformanceStatements = merge(this.conformanceStatements, conformanceStatements2);
+          session.conformanceStatements =
+                  merge(session.conformanceStatements, conformanceStatements2);
         }
         Constraints predicates2 = constraintsParser.predicates(c2Xml);
         if (predicates2 != null) {
-          this.predicates = merge(this.predicates, predicates2);
+          session.predicates = merge(session.predicates, predicates2);
         }
       }
 
+      session.index();
+
       // message.setConformanceStatements(this.findConformanceStatements(this.conformanceStatements
       // .getGroups(), model.getMessage().getId(), model.getMessage().getName()));
       // message.setPredicates(this.findPredicates(this.predicates.getGroups(), model.getMessage()
       // .getId(), model.getMessage().getName()));
 
-      message.setConformanceStatements(this.findConformanceStatements(this.conformanceStatements
-              .getMessages(), model.getMessage().getId(), model.getMessage().getName()));
+      message.setConformanceStatements(session.messageStatements.find(model.getMessage()
+              .getId(), model.getMessage().getName()));
 
       
-      message.setPredicates(this.findPredicates(this.predicates.getMessages(), model.getMessage()
+      message.setPredicates(session.messagePredicates.find(model.getMessage()
                 .getId(), model.getMessage().getName()));
+      session.indexMessageTargets(message);
 
       scala.collection.immutable.List<SegRefOrGroup> children = m.structure();
+      if (forkJoinPool != null && children != null) {
+        prebuild(session, children);
+      }
       if (children != null && !children.isEmpty()) {
         Iterator<SegRefOrGroup> it = children.iterator();
         while (it.hasNext()) {
-          process(it.next(), message);
+          process(session, it.next(), message);
         }
       }
-      model.setDatatypes(this.datatypesMap);
-      model.setSegments(this.segmentsMap);
+      model.setDatatypes(session.datatypesMap);
+      model.setSegments(session.segmentsMap);
+      if (!sharedDatatypes) {
+        expandComponents(model);
+      }
 
       // registerAll();
       // addVariesChildren();
@@ -162,9 +153,135 @@ public abstract class EDIProfileParser extends ProfileParser {
       throw new ProfileParserException(e.getLocalizedMessage());
     } catch (CloneNotSupportedException e) {
       throw new ProfileParserException(e.getLocalizedMessage());
+    } catch (ExecutionException e) {
+      throw new ProfileParserException(e.getCause().getLocalizedMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProfileParserException(e.getLocalizedMessage());
+    }
+  }
+
+  /**
+   * Builds the distinct segments and datatypes of the message in parallel, then registers them in
+   * the order the sequential walk would have, so the model is identical.
+   *
+   * @param session
+   * @param structure
+   * @throws ExecutionException
+   * @throws InterruptedException
+   */
+  private void prebuild(final ParseSession session,
+          scala.collection.immutable.List<SegRefOrGroup> structure) throws ExecutionException,
+          InterruptedException {
+    Map<String, SegmentRef> segments = new LinkedHashMap<String, SegmentRef>();
+    Map<String, Datatype> datatypes = new LinkedHashMap<String, Datatype>();
+    Iterator<SegRefOrGroup> it = structure.iterator();
+    while (it.hasNext()) {
+      discover(it.next(), segments, datatypes);
+    }
+    session.prebuilt = true;
+
+    java.util.List<Callable<ProfileElement>> tasks =
+            new ArrayList<Callable<ProfileElement>>(datatypes.size() + segments.size());
+    for (final Datatype d : datatypes.values()) {
+      tasks.add(new Callable<ProfileElement>() {
+        @Override
+        public ProfileElement call() throws Exception {
+          ProfileElement element = datatypeElement(session, d);
+          processComponents(session, d, element);
+          return element;
+        }
+      });
+    }
+    for (final SegmentRef ref : segments.values()) {
+      tasks.add(new Callable<ProfileElement>() {
+        @Override
+        public ProfileElement call() throws Exception {
+          return process(session, ref.ref(), ref.req());
+        }
+      });
+    }
+    java.util.List<Future<ProfileElement>> results = forkJoinPool.invokeAll(tasks);
+    for (Future<ProfileElement> result : results) {
+      ProfileElement element = result.get();
+      if (TYPE_DATATYPE.equals(element.getType())) {
+        session.datatypesMap.put(element.getId(), element);
+      } else {
+        session.segmentsMap.put(element.getId(), element);
+      }
+    }
+  }
+
+  private void discover(SegRefOrGroup ref, Map<String, SegmentRef> segments,
+          Map<String, Datatype> datatypes) {
+    if (ref instanceof SegmentRef) {
+      Segment s = ((SegmentRef) ref).ref();
+      if (!segments.containsKey(s.id())) {
+        Iterator<DynMapping> dynIt = s.mappings().iterator();
+        while (dynIt.hasNext()) {
+          Iterator<Datatype> mapIt = dynIt.next().map().valuesIterator();
+          while (mapIt.hasNext()) {
+            discover(mapIt.next(), datatypes);
+          }
+        }
+        Iterator<Field> fields = s.fields().iterator();
+        while (fields.hasNext()) {
+          discover(fields.next().datatype(), datatypes);
+        }
+        segments.put(s.id(), (SegmentRef) ref);
+      }
+    } else if (ref instanceof Group) {
+      Iterator<SegRefOrGroup> it = ((Group) ref).structure().iterator();
+      while (it.hasNext()) {
+        discover(it.next(), segments, datatypes);
+      }
+    }
+  }
+
+  private void discover(Datatype d, Map<String, Datatype> datatypes) {
+    if (!datatypes.containsKey(d.id())) {
+      datatypes.put(d.id(), d);
+      if (d instanceof Composite) {
+        Iterator<Component> it = ((Composite) d).components().iterator();
+        while (it.hasNext()) {
+          discover(it.next().datatype(), datatypes);
+        }
+      }
     }
   }
 
+  public ForkJoinPool getForkJoinPool() {
+    return forkJoinPool;
+  }
+
+  /**
+   * @param forkJoinPool pool used to build segments and datatypes in parallel, null to build them
+   *        sequentially
+   */
+  public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+    this.forkJoinPool = forkJoinPool;
+  }
+
+  public boolean isSharedDatatypes() {
+    return sharedDatatypes;
+  }
+
+  /**
+   * @param sharedDatatypes true to leave the children of components in their datatype element
+   *        only, see {@link #expand}. False by default: every component carries a copy of the
+   *        children of its datatype.
+   */
+  public void setSharedDatatypes(boolean sharedDatatypes) {
+    this.sharedDatatypes = sharedDatatypes;
+  }
+
+  public CompiledProfileCache getProfileCache() {
+    return profileCache;
+  }
+
+  public void setProfileCache(CompiledProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
 
   private Constraints merge(Constraints c1, Constraints c2) {
     if (c2 == null)
@@ -219,21 +336,23 @@ public abstract class EDIProfileParser extends ProfileParser {
    * @throws XPathExpressionException
    * @throws CloneNotSupportedException
    */
-  private ProfileElement process(SegRefOrGroup ref, ProfileElement parentElement)
+  private ProfileElement process(ParseSession session, SegRefOrGroup ref,
+          ProfileElement parentElement)
           throws XPathExpressionException, CloneNotSupportedException {
     if (ref == null)
       return parentElement;
     if (ref instanceof SegmentRef) {
-      return process((SegmentRef) ref, ((SegmentRef) ref).req(), parentElement);
+      return process(session, (SegmentRef) ref, ((SegmentRef) ref).req(), parentElement);
     } else if (ref instanceof Group) {
-      return process((Group) ref, ((Group) ref).req(), parentElement);
+      return process(session, (Group) ref, ((Group) ref).req(), parentElement);
     } else {
       throw new IllegalArgumentException("Unknown type of SegRefOrGroup");
     }
   }
 
 
-  private ProfileElement process(SegmentRef ref, Req req, ProfileElement parentElement)
+  private ProfileElement process(ParseSession session, SegmentRef ref, Req req,
+          ProfileElement parentElement)
           throws XPathExpressionException, CloneNotSupportedException {
     ProfileElement element = process(req, new ProfileElement(), parentElement);
     Segment s = ref.ref();
@@ -243,13 +362,13 @@ public abstract class EDIProfileParser extends ProfileParser {
     // element.setIcon(ICON_SEGMENT);
     element.setParent(parentElement);
     element.setPosition(req.position() + "");
-    element.setId(UUID.randomUUID().toString());
+    element.setId(elementId(parentElement, req.position()));
     ProfileElement segmentElement = null;
-    if (segmentsMap.containsKey(s.id())) {
-      segmentElement = segmentsMap.get(s.id());
+    if (session.segmentsMap.containsKey(s.id())) {
+      segmentElement = session.segmentsMap.get(s.id());
     } else {
-      segmentElement = process(ref.ref(), ref.req());
-      segmentsMap.put(segmentElement.getId(), segmentElement);
+      segmentElement = process(session, ref.ref(), ref.req());
+      session.segmentsMap.put(segmentElement.getId(), segmentElement);
     }
     segmentElement.setHide(false/*req.hide()*/);
     segmentElement.setRelevent(segmentElement.isRelevent() || element.isRelevent());
@@ -261,17 +380,7 @@ public abstract class EDIProfileParser extends ProfileParser {
     element.setConformanceStatements(new ArrayList<ConformanceStatement>());
     String targetPath = getTargetPath(element);
     if (!targetPath.equals("")) {
-      for (ConformanceStatement cs : this.model.getMessage().getConformanceStatements()) {
-        if (cs.getConstraintTarget().equals(targetPath)) {
-          element.getConformanceStatements().add(cs);
-        }
-      }
-
-      for (Predicate p : this.model.getMessage().getPredicates()) {
-        if (p.getConstraintTarget().equals(targetPath)) {
-          element.getPredicates().add(p);
-        }
-      }
+      session.addMessageTargetConstraints(targetPath, element);
     }
     parentElement.getChildren().add(element);
     return element;
@@ -302,44 +411,45 @@ public abstract class EDIProfileParser extends ProfileParser {
    * @throws XPathExpressionException
    * @throws CloneNotSupportedException
    */
-  private ProfileElement process(Segment s, Req req) throws XPathExpressionException,
-          CloneNotSupportedException {
+  private ProfileElement process(ParseSession session, Segment s, Req req)
+          throws XPathExpressionException, CloneNotSupportedException {
     ProfileElement element = new ProfileElement();
     element.setName(s.name());
     element.setType(TYPE_SEGMENT);
     element.setDescription(s.desc());
     // element.setIcon(ICON_SEGMENT);
     element.setId(s.id());
-    element.setDynamicMaps(dynaMap(s));
-    element.setPredicates(this.findPredicates(this.predicates.getSegments(), s.id(), s.name()));
-    element.setConformanceStatements(this.findConformanceStatements(
-            this.conformanceStatements.getSegments(), s.id(), s.name()));
+    element.setDynamicMaps(dynaMap(session, s));
+    element.setPredicates(session.segmentPredicates.find(s.id(), s.name()));
+    element.setConformanceStatements(session.segmentStatements.find(s.id(), s.name()));
 
     scala.collection.immutable.List<Field> children = s.fields();
     if (children != null && !children.isEmpty()) {
       Iterator<Field> it = children.iterator();
       while (it.hasNext()) {
-        process(it.next(), element);
+        process(session, it.next(), element);
       }
     }
     return element;
   }
 
 
-  private Map<Integer, Set<String>> dynaMap(Segment s) throws XPathExpressionException,
-          CloneNotSupportedException {
+  private Map<Integer, Set<String>> dynaMap(ParseSession session, Segment s)
+          throws XPathExpressionException, CloneNotSupportedException {
     List<DynMapping> dynamicMappings = s.mappings();
     if (!dynamicMappings.isEmpty()) {
-      Map<Integer, Set<String>> maps = new HashMap<Integer, Set<String>>();
+      Map<Integer, Set<String>> maps = new TreeMap<Integer, Set<String>>();
       Iterator<DynMapping> dynIt = dynamicMappings.iterator();
       while (dynIt.hasNext()) {
         DynMapping d = dynIt.next();
-        Set<String> ids = new HashSet<String>();
+        Set<String> ids = new TreeSet<String>();
         Iterator<Datatype> mapIt = d.map().valuesIterator();
         while (mapIt.hasNext()) {
           Datatype da = mapIt.next();
           ids.add(da.id());
-          process(da);
+          if (!session.prebuilt) {
+            process(session, da);
+          }
         }
         maps.put(d.position(), ids);
       }
@@ -359,7 +469,8 @@ public abstract class EDIProfileParser extends ProfileParser {
    * @throws XPathExpressionException
    * @throws CloneNotSupportedException
    */
-  private ProfileElement process(Group g, Req req, ProfileElement parentElement)
+  private ProfileElement process(ParseSession session, Group g, Req req,
+          ProfileElement parentElement)
           throws XPathExpressionException, CloneNotSupportedException {
     ProfileElement element = process(req, new ProfileElement(), parentElement);
     element.setType(TYPE_GROUP);
@@ -369,23 +480,12 @@ public abstract class EDIProfileParser extends ProfileParser {
     element.setParent(parentElement);
     element.setPosition(req.position() + "");
     element.setId(g.id());
-    element.setPredicates(this.findPredicates(this.predicates.getGroups(), g.id(), g.name()));
-    element.setConformanceStatements(this.findConformanceStatements(
-            this.conformanceStatements.getGroups(), g.id(), g.name()));
+    element.setPredicates(session.groupPredicates.find(g.id(), g.name()));
+    element.setConformanceStatements(session.groupStatements.find(g.id(), g.name()));
 
     String targetPath = getTargetPath(element);
     if (!targetPath.equals("")) {
-      for (ConformanceStatement cs : this.model.getMessage().getConformanceStatements()) {
-        if (cs.getConstraintTarget().equals(targetPath)) {
-          element.getConformanceStatements().add(cs);
-        }
-      }
-
-      for (Predicate p : this.model.getMessage().getPredicates()) {
-        if (p.getConstraintTarget().equals(targetPath)) {
-          element.getPredicates().add(p);
-        }
-      }
+      session.addMessageTargetConstraints(targetPath, element);
     }
 
     parentElement.getChildren().add(element);
@@ -393,13 +493,25 @@ public abstract class EDIProfileParser extends ProfileParser {
     if (children != null) {
       Iterator<SegRefOrGroup> it = children.iterator();
       while (it.hasNext()) {
-        process(it.next(), element);
+        process(session, it.next(), element);
       }
     }
     return element;
   }
 
 
+  /**
+   * Derives the id of an element from its parent id and its position, so that the same profile
+   * always produces the same ids.
+   *
+   * @param parent
+   * @param position
+   * @return
+   */
+  private String elementId(ProfileElement parent, int position) {
+    return parent.getId() + "." + position;
+  }
+
   private String getTargetPath(ProfileElement element) {
     if (element == null || element.getType().equals(TYPE_MESSAGE))
       return "";
@@ -445,15 +557,15 @@ public abstract class EDIProfileParser extends ProfileParser {
    * @throws XPathExpressionException
    * @throws CloneNotSupportedException
    */
-  private void process(Field f, ProfileElement parent) throws XPathExpressionException,
-          CloneNotSupportedException {
+  private void process(ParseSession session, Field f, ProfileElement parent)
+          throws XPathExpressionException, CloneNotSupportedException {
     if (f == null)
       return;
     ProfileElement element = process(f.req(), new ProfileElement(), parent);
     element.setName(f.name());
     element.setType(TYPE_FIELD);
     // element.setIcon(ICON_FIELD);
-    element.setId(UUID.randomUUID().toString());
+    element.setId(elementId(parent, f.req().position()));
     element.setParent(parent);
     String table = table(f.req());
     if (table != null) {
@@ -462,10 +574,10 @@ public abstract class EDIProfileParser extends ProfileParser {
     element.setPosition(f.req().position() + "");
     element.setPath(parent.getName() + "-" + f.req().position());
     parent.getChildren().add(element);
-    ProfileElement datatypeElement = process(f.datatype());
-    element.setDatatype(datatypeElement.getId()); // use id for flavors
-
-    // element.setChildren(ProfileElement.clone(datatypeElement.getChildren()));
+    if (!session.prebuilt) {
+      process(session, f.datatype());
+    }
+    element.setDatatype(f.datatype().id()); // use id for flavors
   }
 
   private String table(Req req) {
@@ -481,46 +593,54 @@ public abstract class EDIProfileParser extends ProfileParser {
   }
 
 
-  private ProfileElement process(Datatype d) throws XPathExpressionException,
-          CloneNotSupportedException {
-    if (!datatypesMap.containsKey(d.id())) {
-      ProfileElement element = new ProfileElement();
-      element.setId(d.id());
-      element.setName(d.name());
-      element.setDescription(d.desc());
-      element.setType(TYPE_DATATYPE);
-      // element.setIcon(ICON_DATATYPE);
-      element.setRelevent(true);
-      element.setPredicates(this.findPredicates(this.predicates.getDatatypes(), d.id(), d.name()));
-      element.setConformanceStatements(this.findConformanceStatements(
-              this.conformanceStatements.getDatatypes(), d.id(), d.name()));
-      datatypesMap.put(d.id(), element);
-      if (d instanceof Composite) {
-        Composite c = (Composite) d;
-        scala.collection.immutable.List<Component> children = c.components();
-        if (children != null) {
-          Iterator<Component> it = children.iterator();
-          while (it.hasNext()) {
-            process(it.next(), element);
-          }
-        }
-      }
-
+  private ProfileElement process(ParseSession session, Datatype d)
+          throws XPathExpressionException, CloneNotSupportedException {
+    if (!session.datatypesMap.containsKey(d.id())) {
+      ProfileElement element = datatypeElement(session, d);
+      session.datatypesMap.put(d.id(), element);
+      processComponents(session, d, element);
       return element;
     } else {
-      return datatypesMap.get(d.id());
+      return session.datatypesMap.get(d.id());
     }
 
   }
 
-  private ProfileElement process(Component c, ProfileElement parent)
+  private ProfileElement datatypeElement(ParseSession session, Datatype d) {
+    ProfileElement element = new ProfileElement();
+    element.setId(d.id());
+    element.setName(d.name());
+    element.setDescription(d.desc());
+    element.setType(TYPE_DATATYPE);
+    // element.setIcon(ICON_DATATYPE);
+    element.setRelevent(true);
+    element.setPredicates(session.datatypePredicates.find(d.id(), d.name()));
+    element.setConformanceStatements(session.datatypeStatements.find(d.id(), d.name()));
+    return element;
+  }
+
+  private void processComponents(ParseSession session, Datatype d, ProfileElement element)
+          throws XPathExpressionException, CloneNotSupportedException {
+    if (d instanceof Composite) {
+      Composite c = (Composite) d;
+      scala.collection.immutable.List<Component> children = c.components();
+      if (children != null) {
+        Iterator<Component> it = children.iterator();
+        while (it.hasNext()) {
+          process(session, it.next(), element);
+        }
+      }
+    }
+  }
+
+  private ProfileElement process(ParseSession session, Component c, ProfileElement parent)
           throws XPathExpressionException, CloneNotSupportedException {
     if (c == null)
       return parent;
     ProfileElement element = new ProfileElement();
     process(c.req(), element, parent);
     element.setName(c.name());
-    element.setId(UUID.randomUUID().toString());
+    element.setId(elementId(parent, c.req().position()));
     element.setType(TYPE_COMPONENT);
     // element.setIcon(parent.getType().equals(TYPE_FIELD) ? ICON_COMPONENT : ICON_SUBCOMPONENT);
     String table = table(c.req());
@@ -531,39 +651,69 @@ public abstract class EDIProfileParser extends ProfileParser {
     element.setParent(parent);
     element.setPath(parent.getPath() + "." + c.req().position());
     parent.getChildren().add(element);
-    ProfileElement datatypeElement = process(c.datatype());
-    element.setChildren(ProfileElement.clone(datatypeElement.getChildren()));
+    if (!session.prebuilt) {
+      process(session, c.datatype());
+    }
     return element;
   }
 
-  private Document toDoc(String xmlSource) {
-    DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-    factory.setNamespaceAware(true);
-    factory.setIgnoringComments(false);
-    factory.setIgnoringElementContentWhitespace(true);
-    DocumentBuilder builder;
-    try {
-      builder = factory.newDocumentBuilder();
-      return builder.parse(new InputSource(new StringReader(xmlSource)));
-    } catch (ParserConfigurationException e) {
-      e.printStackTrace();
-    } catch (SAXException e) {
-      e.printStackTrace();
-    } catch (IOException e) {
-      e.printStackTrace();
+  /**
+   * Copies the children of their datatype into the components of the datatypes of the model,
+   * innermost datatypes first so the copies are complete.
+   *
+   * @param model
+   * @throws CloneNotSupportedException
+   */
+  private void expandComponents(ProfileModel model) throws CloneNotSupportedException {
+    Set<String> expanded = new HashSet<String>();
+    for (ProfileElement datatype : model.getDatatypes().values()) {
+      expandComponents(model, datatype, expanded);
     }
-    return null;
   }
 
-  public String integrationProfileId(String xml) {
-    Document doc = this.toDoc(xml);
-    Element elmIntegrationProfile =
-            (Element) doc.getElementsByTagName("ConformanceProfile").item(0);
-    return elmIntegrationProfile.getAttribute("ID");
+  private void expandComponents(ProfileModel model, ProfileElement datatype, Set<String> expanded)
+          throws CloneNotSupportedException {
+    if (!expanded.add(datatype.getId())) {
+      return;
+    }
+    for (ProfileElement component : datatype.getChildren()) {
+      ProfileElement componentDatatype = model.getDatatypes().get(component.getDatatype());
+      if (componentDatatype != null) {
+        expandComponents(model, componentDatatype, expanded);
+      }
+      component.setChildren(expand(model, component));
+    }
   }
 
+  /**
+   * Returns the children of a field or component from its datatype. The datatype subtree is
+   * copied so callers needing the flattened view of a model parsed with shared datatypes can
+   * modify it freely.
+   *
+   * @param model
+   * @param element
+   * @return
+   * @throws CloneNotSupportedException
+   */
+  public java.util.List<ProfileElement> expand(ProfileModel model, ProfileElement element)
+          throws CloneNotSupportedException {
+    if (!element.getChildren().isEmpty() || element.getDatatype() == null
+            || model.getDatatypes() == null) {
+      return element.getChildren();
+    }
+    ProfileElement datatypeElement = model.getDatatypes().get(element.getDatatype());
+    if (datatypeElement == null || datatypeElement.getChildren().isEmpty()) {
+      return element.getChildren();
+    }
+    java.util.List<ProfileElement> children = ProfileElement.clone(datatypeElement.getChildren());
+    for (ProfileElement child : children) {
+      child.setParent(element);
+    }
+    return children;
+  }
 
-  private ProfileElement findElement(java.util.List<Integer> positions, ProfileElement element) {
+  private ProfileElement findElement(ParseSession session, java.util.List<Integer> positions,
+          ProfileElement element) {
     if (!positions.isEmpty()) {
       int curPos = positions.get(0);
       ProfileElement child1 = null;
@@ -572,12 +722,12 @@ public abstract class EDIProfileParser extends ProfileParser {
               || element.getType().equals(TYPE_COMPONENT) || element.getType().equals(TYPE_DATATYPE)) {
         child1 = element.getChildren().get(curPos - 1);
       } else if (element.getType().equals(TYPE_SEGMENT_REF)) {
-        ProfileElement segmentElement = segmentsMap.get(element.getRef());
+        ProfileElement segmentElement = session.segmentsMap.get(element.getRef());
         child1 = segmentElement.getChildren().get(curPos - 1);
       }
       positions.remove(0);
       if (!positions.isEmpty()) {
-        return findElement(positions, child1);
+        return findElement(session, positions, child1);
       }
       return child1;
     }
@@ -596,10 +746,11 @@ public abstract class EDIProfileParser extends ProfileParser {
 
 
 
-  private ProfileElement findElementByTarget(String target, ProfileElement element) {
+  private ProfileElement findElementByTarget(ParseSession session, String target,
+          ProfileElement element) {
     if (target != null && !"".equals(target)) {
       java.util.List<Integer> positions = positions(target);
-      ProfileElement found = findElement(positions, element);
+      ProfileElement found = findElement(session, positions, element);
       return found;
     }
     return null;
@@ -640,52 +791,147 @@ public abstract class EDIProfileParser extends ProfileParser {
     return null;
   }
 
-  private ArrayList<ConformanceStatement> findConformanceStatements(Context context, String id,
-                                                                    String name) {
-    Set<ByNameOrByID> byNameOrByIDs = context.getByNameOrByIDs();
-    ArrayList<ConformanceStatement> result = new ArrayList<ConformanceStatement>();
-    for (ByNameOrByID byNameOrByID : byNameOrByIDs) {
-      if (byNameOrByID instanceof ByID) {
-        ByID byID = (ByID) byNameOrByID;
-        if (byID.getByID().equals(id)) {
-          for (ConformanceStatement c : byID.getConformanceStatements()) {
-            result.add(c);
-          }
-        }
-      } else if (byNameOrByID instanceof ByName) {
-        ByName byName = (ByName) byNameOrByID;
-        if (byName.getByName().equals(name)) {
-          for (ConformanceStatement c : byName.getConformanceStatements()) {
-            result.add(c);
-          }
-        }
+  /**
+   * State of a single parse. Each call to parse uses its own session so that a parser instance
+   * can serve concurrent parses.
+   */
+  private static class ParseSession {
+    private final ProfileModel model = new ProfileModel();
+    private final Map<String, ProfileElement> segmentsMap =
+            new LinkedHashMap<String, ProfileElement>();
+    private final Map<String, ProfileElement> datatypesMap =
+            new LinkedHashMap<String, ProfileElement>();
+    private Constraints conformanceStatements = null;
+    private Constraints predicates = null;
+    // segments and datatypes were built ahead of the structure walk
+    private boolean prebuilt = false;
+    private ConstraintIndex<ConformanceStatement> messageStatements;
+    private ConstraintIndex<ConformanceStatement> groupStatements;
+    private ConstraintIndex<ConformanceStatement> segmentStatements;
+    private ConstraintIndex<ConformanceStatement> datatypeStatements;
+    private ConstraintIndex<Predicate> messagePredicates;
+    private ConstraintIndex<Predicate> groupPredicates;
+    private ConstraintIndex<Predicate> segmentPredicates;
+    private ConstraintIndex<Predicate> datatypePredicates;
+    private final Map<String, java.util.List<ConformanceStatement>> statementsByTarget =
+            new HashMap<String, java.util.List<ConformanceStatement>>();
+    private final Map<String, java.util.List<Predicate>> predicatesByTarget =
+            new HashMap<String, java.util.List<Predicate>>();
+
+    /**
+     * Indexes the merged constraints by id and name, once per parse.
+     */
+    private void index() {
+      messageStatements =
+              ConstraintIndex.conformanceStatements(conformanceStatements.getMessages());
+      groupStatements = ConstraintIndex.conformanceStatements(conformanceStatements.getGroups());
+      segmentStatements =
+              ConstraintIndex.conformanceStatements(conformanceStatements.getSegments());
+      datatypeStatements =
+              ConstraintIndex.conformanceStatements(conformanceStatements.getDatatypes());
+      messagePredicates = ConstraintIndex.predicates(predicates.getMessages());
+      groupPredicates = ConstraintIndex.predicates(predicates.getGroups());
+      segmentPredicates = ConstraintIndex.predicates(predicates.getSegments());
+      datatypePredicates = ConstraintIndex.predicates(predicates.getDatatypes());
+    }
+
+    /**
+     * Indexes the message level constraints by target path.
+     */
+    private void indexMessageTargets(ProfileElement message) {
+      for (ConformanceStatement cs : message.getConformanceStatements()) {
+        ConstraintIndex.add(statementsByTarget, cs.getConstraintTarget(), cs);
+      }
+      for (Predicate p : message.getPredicates()) {
+        ConstraintIndex.add(predicatesByTarget, p.getConstraintTarget(), p);
+      }
+    }
+
+    private void addMessageTargetConstraints(String targetPath, ProfileElement element) {
+      java.util.List<ConformanceStatement> statements = statementsByTarget.get(targetPath);
+      if (statements != null) {
+        element.getConformanceStatements().addAll(statements);
+      }
+      java.util.List<Predicate> preds = predicatesByTarget.get(targetPath);
+      if (preds != null) {
+        element.getPredicates().addAll(preds);
       }
     }
-    return result;
   }
 
-  private ArrayList<Predicate> findPredicates(Context context, String id, String name) {
-    Set<ByNameOrByID> byNameOrByIDs = context.getByNameOrByIDs();
-    ArrayList<Predicate> result = new ArrayList<Predicate>();
-    for (ByNameOrByID byNameOrByID : byNameOrByIDs) {
-      if (byNameOrByID instanceof ByID) {
-        ByID byID = (ByID) byNameOrByID;
-        if (byID.getByID().equals(id)) {
-          for (Predicate p : byID.getPredicates()) {
-            result.add(p);
+  /**
+   * Constraints of a context indexed by the id and the name they apply to.
+   */
+  private static class ConstraintIndex<T> {
+    private final Map<String, java.util.List<T>> byId =
+            new HashMap<String, java.util.List<T>>();
+    private final Map<String, java.util.List<T>> byName =
+            new HashMap<String, java.util.List<T>>();
+
+    private static ConstraintIndex<ConformanceStatement> conformanceStatements(Context context) {
+      ConstraintIndex<ConformanceStatement> index = new ConstraintIndex<ConformanceStatement>();
+      if (context != null && context.getByNameOrByIDs() != null) {
+        for (ByNameOrByID byNameOrByID : context.getByNameOrByIDs()) {
+          if (byNameOrByID instanceof ByID) {
+            ByID byID = (ByID) byNameOrByID;
+            for (ConformanceStatement c : byID.getConformanceStatements()) {
+              add(index.byId, byID.getByID(), c);
+            }
+          } else if (byNameOrByID instanceof ByName) {
+            ByName byName = (ByName) byNameOrByID;
+            for (ConformanceStatement c : byName.getConformanceStatements()) {
+              add(index.byName, byName.getByName(), c);
+            }
           }
         }
-      } else if (byNameOrByID instanceof ByName) {
-        ByName byName = (ByName) byNameOrByID;
-        if (byName.getByName().equals(name)) {
-          for (Predicate p : byName.getPredicates()) {
-            result.add(p);
+      }
+      return index;
+    }
+
+    private static ConstraintIndex<Predicate> predicates(Context context) {
+      ConstraintIndex<Predicate> index = new ConstraintIndex<Predicate>();
+      if (context != null && context.getByNameOrByIDs() != null) {
+        for (ByNameOrByID byNameOrByID : context.getByNameOrByIDs()) {
+          if (byNameOrByID instanceof ByID) {
+            ByID byID = (ByID) byNameOrByID;
+            for (Predicate p : byID.getPredicates()) {
+              add(index.byId, byID.getByID(), p);
+            }
+          } else if (byNameOrByID instanceof ByName) {
+            ByName byName = (ByName) byNameOrByID;
+            for (Predicate p : byName.getPredicates()) {
+              add(index.byName, byName.getByName(), p);
+            }
           }
         }
       }
+      return index;
+    }
+
+    private static <T> void add(Map<String, java.util.List<T>> map, String key, T value) {
+      java.util.List<T> values = map.get(key);
+      if (values == null) {
+        values = new ArrayList<T>();
+        map.put(key, values);
+      }
+      values.add(value);
     }
-    return result;
-  }
 
+    /**
+     * @return a new list with the constraints applying to the given id or name
+     */
+    private ArrayList<T> find(String id, String name) {
+      ArrayList<T> result = new ArrayList<T>();
+      java.util.List<T> values = byId.get(id);
+      if (values != null) {
+        result.addAll(values);
+      }
+      values = byName.get(name);
+      if (values != null) {
+        result.addAll(values);
+      }
+      return result;
+    }
+  }
 
 }
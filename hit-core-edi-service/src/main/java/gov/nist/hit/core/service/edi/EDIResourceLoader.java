@@ -1,6 +1,11 @@
 package gov.nist.hit.core.service.edi;
 
+import gov.nist.hit.core.edi.domain.EDITestContext;
 import gov.nist.hit.core.service.ResourceLoader;
+import gov.nist.hit.core.service.exception.ProfileParserException;
+
+import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * This software was developed at the National Institute of Standards and Technology by employees of
@@ -16,4 +21,16 @@ import gov.nist.hit.core.service.ResourceLoader;
  * Created by Maxence Lefort on 1/25/18.
  */
 public abstract class EDIResourceLoader extends ResourceLoader {
+
+  /**
+   * Streams the json of the conformance profile of the test context
+   * 
+   * @param testContext
+   * @param out: left open
+   * @throws ProfileParserException
+   * @throws IOException
+   */
+  public abstract void writeProfile(EDITestContext testContext, OutputStream out)
+      throws ProfileParserException, IOException;
+
 }
@@ -24,9 +24,15 @@ import gov.nist.hit.core.service.impl.ValueSetLibrarySerializerImpl;
 import gov.nist.hit.core.service.util.FileUtil;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.databind.JsonMappingException;
@@ -36,6 +42,7 @@ import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 import org.w3c.dom.Document;
@@ -54,14 +61,87 @@ public class EDIResourceLoaderImpl extends EDIResourceLoader {
   @Autowired
   VocabularyLibraryRepository vocabularyLibraryRepository;
 
+  @Autowired
+  CompiledProfileCache profileCache;
+
+  @Autowired
+  ConformanceContextCache conformanceContextCache;
+
+  @Autowired
+  ValueSetLibraryCache valueSetLibraryCache;
+
+  @Autowired
+  ProfileJsonIndex profileJsonIndex;
+
   EDIProfileParser profileParser = new EDIProfileParserImpl();
   ValueSetLibrarySerializer valueSetLibrarySerializer = new ValueSetLibrarySerializerImpl();
+  ProfileModelWriter profileModelWriter = new ProfileModelWriter();
+
+  /**
+   * Conformance profiles generated during the current load, null outside of a load
+   */
+  private volatile ConformanceProfileCache conformanceProfileCache;
 
   private static final String PROFILE_EXT = "-PROFILE";
 
 
   public EDIResourceLoaderImpl() {}
 
+  /**
+   * Opt-in: when true, components of the generated profile json reference their datatype instead
+   * of carrying a copy of its children. Off by default so clients keep the flattened shape, which
+   * means the smaller profile json is only delivered when this is set.
+   */
+  @Value("${edi.profile.sharedDatatypes:false}")
+  private boolean sharedDatatypes;
+
+  /**
+   * Number of threads building a profile model, 0 to build it sequentially
+   */
+  @Value("${edi.profile.parallelism:0}")
+  private int profileParallelism;
+
+  private ForkJoinPool profilePool;
+
+  @PostConstruct
+  public void init() {
+    profileParser.setProfileCache(profileCache);
+    profileParser.setSharedDatatypes(sharedDatatypes);
+    if (profileParallelism > 0) {
+      profilePool = new ForkJoinPool(profileParallelism);
+    }
+    profileParser.setForkJoinPool(profilePool);
+  }
+
+  /**
+   * Test contexts loaded in the same run share the conformance profiles generated from the same
+   * integration profile and constraints. The cache only lives for the run. The conformance
+   * profiles may have been replaced, so the profile json index is cleared after the run.
+   */
+  @Override
+  public void load() {
+    ConformanceProfileCache cache = new ConformanceProfileCache();
+    conformanceProfileCache = cache;
+    try {
+      super.load();
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RuntimeException(e);
+    } finally {
+      conformanceProfileCache = null;
+      cache.invalidateAll();
+      profileJsonIndex.invalidateAll();
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (profilePool != null) {
+      profilePool.shutdown();
+    }
+  }
+
     @Override public List<ResourceUploadStatus> addOrReplaceValueSet(String rootPath, String domain,
         TestScope scope, String username, boolean preloaded) throws IOException {
         System.out.println("AddOrReplace VS");
@@ -104,6 +184,9 @@ public class EDIResourceLoaderImpl extends EDIResourceLoader {
                 }
 
                 this.vocabularyLibraryRepository.save(vocabLibrary);
+                if (exist != null) {
+                    valueSetLibraryCache.invalidate(exist.getId());
+                }
                 result.setStatus(ResourceUploadResult.SUCCESS);
 
             } catch (Exception e) {
@@ -159,6 +242,9 @@ public class EDIResourceLoaderImpl extends EDIResourceLoader {
                 }
 
                 this.constraintsRepository.save(constraint);
+                if (exist != null) {
+                    conformanceContextCache.invalidate(exist.getId());
+                }
                 result.setStatus(ResourceUploadResult.SUCCESS);
 
             } catch (Exception e) {
@@ -214,6 +300,9 @@ public class EDIResourceLoaderImpl extends EDIResourceLoader {
                 }
 
                 this.integrationProfileRepository.save(integrationP);
+                if (exist != null) {
+                    profileCache.invalidate(exist.getXml());
+                }
                 result.setStatus(ResourceUploadResult.SUCCESS);
             } catch (Exception e) {
                 result.setStatus(ResourceUploadResult.FAILURE);
@@ -292,6 +381,10 @@ public class EDIResourceLoaderImpl extends EDIResourceLoader {
                     testContext.setMessage(message(FileUtil.getContent(getResource(path + "Message.text",rootPath)), domain, scope, authorUsername, preloaded));
                 }
 
+                ConformanceProfileCache cache = conformanceProfileCache;
+                if (cache == null) {
+                    cache = new ConformanceProfileCache();
+                }
                 try {
                     ConformanceProfile conformanceProfile = new ConformanceProfile();
 //                    IntegrationProfile integrationProfile = getIntegrationProfile(type.textValue()+PROFILE_EXT);
@@ -301,12 +394,14 @@ public class EDIResourceLoaderImpl extends EDIResourceLoader {
 //                            .getAddditionalConstraints().getXml() : null));
 //                    conformanceProfile.setSourceId(type.textValue());
                     IntegrationProfile integrationProfile = this.getIntegrationProfile(messageId.textValue());
-                    conformanceProfile.setJson(jsonConformanceProfile(integrationProfile.getXml(), messageId.textValue(),
+                    conformanceProfile.setJson(cachedJsonConformanceProfile(cache,
+                        integrationProfile.getXml(), messageId.textValue(),
                         testContext.getConstraints() != null ? testContext.getConstraints().getXml() : null,
                         testContext.getAddditionalConstraints() != null
                             ? testContext.getAddditionalConstraints().getXml() : null));
                     conformanceProfile
-                        .setXml(getConformanceProfileContent(integrationProfile.getXml(), messageId.textValue()));
+                        .setXml(cachedConformanceProfileContent(cache, integrationProfile.getXml(),
+                            messageId.textValue()));
                     conformanceProfile.setSourceId(messageId.textValue());
                     conformanceProfile.setDomain(domain);
                     conformanceProfile.setScope(scope);
@@ -323,6 +418,59 @@ public class EDIResourceLoaderImpl extends EDIResourceLoader {
         }
     }
 
+    /**
+     * Generates the conformance profile json once per integration profile, message id and
+     * constraints
+     */
+    private String cachedJsonConformanceProfile(ConformanceProfileCache cache,
+        final String integrationProfileXml, final String messageId, final String constraintsXml,
+        final String additionalConstraintsXml)
+        throws ProfileParserException, IOException {
+        try {
+            return cache.getJson(integrationProfileXml, messageId, constraintsXml,
+                additionalConstraintsXml, new BoundedCache.Loader<String, String>() {
+                    @Override
+                    public String load(String key) throws Exception {
+                        return jsonConformanceProfile(integrationProfileXml, messageId,
+                            constraintsXml, additionalConstraintsXml);
+                    }
+                });
+        } catch (ProfileParserException e) {
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProfileParserException(e.getMessage());
+        }
+    }
+
+    /**
+     * Extracts the conformance profile xml once per integration profile and message id
+     */
+    private String cachedConformanceProfileContent(ConformanceProfileCache cache,
+        final String integrationProfileXml, final String messageId)
+        throws ProfileParserException, IOException {
+        try {
+            return cache.getXml(integrationProfileXml, messageId,
+                new BoundedCache.Loader<String, String>() {
+                    @Override
+                    public String load(String key) throws Exception {
+                        return getConformanceProfileContent(integrationProfileXml, messageId);
+                    }
+                });
+        } catch (ProfileParserException e) {
+            throw e;
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ProfileParserException(e.getMessage());
+        }
+    }
+
     @Override
     protected IntegrationProfile getIntegrationProfile(String messageId) throws IOException {
         String sourceId = this.getProfilesMap().get(messageId);
@@ -339,6 +487,34 @@ public class EDIResourceLoaderImpl extends EDIResourceLoader {
         additionalConstraintsXml);
   }
 
+  /**
+   * Generates the conformance profile json with the same writer as {@link #writeProfile}
+   */
+  @Override
+  public String jsonConformanceProfile(String integrationProfileXml, String conformanceProfileId,
+      String constraintsXml, String additionalConstraintsXml) throws ProfileParserException,
+      IOException {
+    StringWriter writer = new StringWriter();
+    profileModelWriter.write(
+        parseProfile(integrationProfileXml, conformanceProfileId, constraintsXml,
+            additionalConstraintsXml), writer);
+    return writer.toString();
+  }
+
+  /**
+   * Parses the conformance profile of the test context and streams its json to the output stream
+   */
+  @Override
+  public void writeProfile(EDITestContext testContext, OutputStream out)
+      throws ProfileParserException, IOException {
+    ConformanceProfile profile = testContext.getConformanceProfile();
+    profileModelWriter.write(
+        parseProfile(profile.getXml(), profile.getSourceId(),
+            testContext.getConstraints() != null ? testContext.getConstraints().getXml() : null,
+            testContext.getAddditionalConstraints() != null ? testContext
+                .getAddditionalConstraints().getXml() : null), out);
+  }
+
   @Override
   public VocabularyLibrary vocabLibrary(String content, String domain, TestScope scope,
       String authorUsername, boolean preloaded) throws JsonGenerationException,
@@ -0,0 +1,234 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.edi.domain.EDIWarmupStatus;
+import gov.nist.hit.core.edi.domain.EDIWarmupStatus.State;
+import gov.nist.hit.core.edi.repo.EDITestContextRepository;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Service;
+
+/**
+ * Optionally builds the profile, conformance context, value set library and profile json index of
+ * every test context at startup so that the first validations do not pay for them. The warm-up
+ * runs in the background, its progress is available through {@link #getStatus()}.
+ * 
+ * Configuration:
+ * <ul>
+ * <li>edi.warmup.enabled: run the warm-up at startup</li>
+ * <li>edi.warmup.threads: number of test contexts loaded in parallel</li>
+ * </ul>
+ * 
+ * Test contexts are only warmed while their resources fit in the caches, so that warmed entries do
+ * not evict each other. The cache sizes are set by edi.cache.profiles.maxSize,
+ * edi.cache.conformanceContexts.maxSize and edi.cache.valueSetLibraries.maxSize. Test contexts
+ * are read from the repository one at a time and at most twice the number of threads are held in
+ * memory at once.
+ */
+@Service
+public class EDIResourceWarmup implements ApplicationListener<ContextRefreshedEvent> {
+
+  static final Logger logger = LoggerFactory.getLogger(EDIResourceWarmup.class);
+
+  @Autowired
+  private EDITestContextRepository testContextRepository;
+
+  @Autowired
+  private EDIMessageValidator messageValidator;
+
+  @Autowired
+  private CompiledProfileCache profileCache;
+
+  @Autowired
+  private ConformanceContextCache conformanceContextCache;
+
+  @Autowired
+  private ValueSetLibraryCache valueSetLibraryCache;
+
+  @Autowired
+  private ProfileJsonIndex profileJsonIndex;
+
+  @Value("${edi.warmup.enabled:false}")
+  private boolean enabled;
+
+  @Value("${edi.warmup.threads:4}")
+  private int threads;
+
+  private final AtomicBoolean started = new AtomicBoolean();
+  private final AtomicInteger loaded = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private volatile State state = State.PENDING;
+  private volatile int total;
+  private volatile Long startedAt;
+  private volatile Long completedAt;
+
+  @Override
+  public void onApplicationEvent(ContextRefreshedEvent event) {
+    if (!enabled) {
+      state = State.DISABLED;
+      return;
+    }
+    if (started.compareAndSet(false, true)) {
+      Thread t = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          warmup();
+        }
+      }, "edi-warmup");
+      t.setDaemon(true);
+      t.start();
+    }
+  }
+
+  /**
+   * Loads the resources of all the test contexts and waits for completion
+   */
+  public void warmup() {
+    startedAt = System.currentTimeMillis();
+    state = State.RUNNING;
+    List<Long> ids = testContextRepository.findAllIds();
+    total = ids.size();
+    logger.info("Warming up resources of up to " + total + " test contexts");
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final Semaphore pending = new Semaphore(2 * threads);
+    Fit fit = new Fit();
+    int skipped = 0;
+    try {
+      for (Long id : ids) {
+        pending.acquire();
+        final EDITestContext testContext = testContextRepository.findOne(id);
+        if (testContext == null || !fit.accept(testContext)) {
+          pending.release();
+          skipped += testContext != null ? 1 : 0;
+          continue;
+        }
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              load(testContext);
+            } finally {
+              pending.release();
+            }
+          }
+        });
+      }
+      executor.shutdown();
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      executor.shutdownNow();
+    }
+    if (skipped > 0) {
+      logger.warn("Skipped " + skipped
+          + " test contexts, their resources do not fit in the caches ("
+          + profileCache.getMaxSize() + " profiles, " + conformanceContextCache.getMaxSize()
+          + " conformance contexts, " + valueSetLibraryCache.getMaxSize()
+          + " value set libraries)");
+    }
+    completedAt = System.currentTimeMillis();
+    state = State.COMPLETED;
+    logger.info("Warmed up resources of " + loaded.get() + " test contexts in "
+        + (completedAt - startedAt) + " ms, " + failed.get() + " failed");
+  }
+
+  private void load(EDITestContext testContext) {
+    try {
+      messageValidator.loadResources(testContext);
+      profileJsonIndex.index(testContext.getConformanceProfile());
+      int done = loaded.incrementAndGet();
+      if (done % 50 == 0) {
+        logger.info("Warmed up " + done + "/" + total + " test contexts in "
+            + (System.currentTimeMillis() - startedAt) + " ms");
+      }
+    } catch (Exception e) {
+      failed.incrementAndGet();
+      logger.warn("Failed to warm up test context " + testContext.getId() + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Cache keys of the resources of the test contexts warmed so far
+   */
+  private class Fit {
+    private final Set<String> profiles = new HashSet<String>();
+    private final Set<String> contexts = new HashSet<String>();
+    private final Set<String> libraries = new HashSet<String>();
+
+    /**
+     * 
+     * @param testContext
+     * @return true when the resources of the test context fit in the caches along with those of
+     *         the previous test contexts
+     */
+    private boolean accept(EDITestContext testContext) {
+      String profile =
+          testContext.getConformanceProfile() != null
+              && testContext.getConformanceProfile().getXml() != null ? profileCache
+              .key(testContext.getConformanceProfile().getXml()) : null;
+      String context =
+          conformanceContextCache.key(testContext.getConstraints(),
+              testContext.getAddditionalConstraints());
+      String library =
+          testContext.getVocabularyLibrary() != null ? valueSetLibraryCache.key(testContext
+              .getVocabularyLibrary()) : null;
+      if (!fits(profiles, profile, profileCache.getMaxSize())
+          || !fits(contexts, context, conformanceContextCache.getMaxSize())
+          || !fits(libraries, library, valueSetLibraryCache.getMaxSize())) {
+        return false;
+      }
+      add(profiles, profile);
+      add(contexts, context);
+      add(libraries, library);
+      return true;
+    }
+  }
+
+  private static boolean fits(Set<String> keys, String key, int maxSize) {
+    return key == null || keys.contains(key) || keys.size() < maxSize;
+  }
+
+  private static void add(Set<String> keys, String key) {
+    if (key != null) {
+      keys.add(key);
+    }
+  }
+
+  public EDIWarmupStatus getStatus() {
+    EDIWarmupStatus status = new EDIWarmupStatus();
+    status.setState(state);
+    status.setTotal(total);
+    status.setLoaded(loaded.get());
+    status.setFailed(failed.get());
+    status.setStartedAt(startedAt);
+    status.setCompletedAt(completedAt);
+    return status;
+  }
+
+}
@@ -0,0 +1,284 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.Coordinate;
+import gov.nist.hit.core.domain.MessageElement;
+import gov.nist.hit.core.edi.domain.LeafMessageElement;
+import gov.nist.hit.core.edi.domain.MessageElementData;
+import gov.nist.hit.core.edi.domain.util.Util;
+import hl7.v2.profile.Component;
+import hl7.v2.profile.Composite;
+import hl7.v2.profile.Datatype;
+import hl7.v2.profile.Field;
+import hl7.v2.profile.Group;
+import hl7.v2.profile.Message;
+import hl7.v2.profile.Range;
+import hl7.v2.profile.Req;
+import hl7.v2.profile.SegRefOrGroup;
+import hl7.v2.profile.Segment;
+import hl7.v2.profile.SegmentRef;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import scala.collection.Iterator;
+
+/**
+ * Builds the {@link gov.nist.hit.core.domain.MessageModel} elements of a message from the
+ * boundaries reported by the {@link EDITokenizer}. Segments are matched to the conformance profile
+ * by name to get their descriptions, usages and cardinalities. Empty fields and components are
+ * left out.
+ * 
+ * Limitation: groups are not tracked. A segment inside a group gets the path and the instance
+ * number of its tag counted over the whole message, where JParser gives the path within the group
+ * instance, and a segment used in several places of the structure takes the usage and cardinality
+ * of its first reference. The models are the same for messages without groups, see
+ * {@link #hasGroups(Message)}.
+ */
+public class EDITokenModelBuilder implements EDITokenizer.Handler {
+
+  private final CharSequence message;
+  private final Map<String, SegmentRef> segmentRefs = new HashMap<String, SegmentRef>();
+  private final Map<String, Integer> instances;
+  private final EDIMessageParser.ParseContext context = new EDIMessageParser.ParseContext(null);
+  private final MessageElement root = new MessageElement();
+  private final int firstLine;
+  private final int segmentIndex;
+  private int[] lineStarts;
+  private int lineCount;
+
+  private MessageElement segmentElement;
+  private Segment segment;
+  private String segmentPath;
+
+  /**
+   * 
+   * @param message
+   * @param profile: conformance profile of the message
+   */
+  public EDITokenModelBuilder(CharSequence message, Message profile) {
+    this(message, profile, 0, message.length(), 1, 0, new HashMap<String, Integer>(), 0);
+  }
+
+  /**
+   * Builds the elements of the segments of a range of the message only
+   * 
+   * @param message
+   * @param profile: conformance profile of the message
+   * @param from: offset of the first segment of the range
+   * @param to: end offset (exclusive) of the range
+   * @param firstLine: line of the first segment of the range, 1 based
+   * @param firstLineStart: offset of the start of that line
+   * @param instances: last instance number of the segments before the range, by name. Updated
+   *        with the segments of the range.
+   * @param segmentIndex: number of segments before the range
+   */
+  public EDITokenModelBuilder(CharSequence message, Message profile, int from, int to,
+      int firstLine, int firstLineStart, Map<String, Integer> instances, int segmentIndex) {
+    this.message = message;
+    this.firstLine = firstLine;
+    this.instances = instances;
+    this.segmentIndex = segmentIndex;
+    index(profile.structure());
+    indexLines(firstLineStart, from, to);
+  }
+
+  /**
+   * 
+   * @param profile
+   * @return true when the structure of the message has groups, the builder then does not give
+   *         the model of the JParser
+   */
+  public static boolean hasGroups(Message profile) {
+    Iterator<SegRefOrGroup> it = profile.structure().iterator();
+    while (it.hasNext()) {
+      if (it.next() instanceof Group) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the segment elements of the message
+   */
+  public List<MessageElement> getElements() {
+    return root.getChildren();
+  }
+
+  @Override
+  public void segment(int start, int tagEnd) {
+    String tag = context.string(message.subSequence(start, tagEnd).toString());
+    Integer instance = instances.get(tag);
+    instance = instance == null ? 1 : instance + 1;
+    instances.put(tag, instance);
+    SegmentRef ref = segmentRefs.get(tag);
+    segment = ref != null ? ref.ref() : null;
+    segmentPath = tag + "[" + instance + "]";
+    Req req = ref != null ? ref.req() : null;
+    Range card = req != null ? Util.getOption(req.cardinality()) : null;
+    int position = req != null ? req.position() : segmentIndex + root.getChildren().size() + 1;
+    MessageElementData data =
+        new MessageElementData(segmentPath, segment != null ? context.string(segment.desc()) : tag,
+            usage(req), card != null ? card.min() : -1, card != null ? context.string(card.max())
+                : null, coordinate(start), end(start), position, instance, null,
+            EDIMessageParser.SEGMENT);
+    segmentElement = new MessageElement(EDIMessageParser.NODE_SEGMENT, data, root);
+  }
+
+  @Override
+  public void field(int position, int repetition, int start, int end, int[] components,
+      int componentCount) {
+    if (start == end) {
+      return;
+    }
+    Field field = field(position);
+    Req req = field != null ? field.req() : null;
+    Range card = req != null ? Util.getOption(req.cardinality()) : null;
+    String path = segmentPath + "." + position + "[" + repetition + "]";
+    String name = field != null ? context.string(field.name()) : path;
+    String usage = usage(req);
+    String max = card != null ? context.string(card.max()) : null;
+    int min = card != null ? card.min() : -1;
+    Coordinate startCoordinate = coordinate(start);
+    Coordinate endCoordinate = end(start);
+    // split like the JParser: by the datatype of the field when it is in the profile
+    Datatype datatype = field != null ? field.datatype() : null;
+    if (datatype != null ? !(datatype instanceof Composite) : componentCount <= 1) {
+      new LeafMessageElement(EDIMessageParser.NODE_FIELD, new MessageElementData(path, name,
+          usage, min, max, startCoordinate, endCoordinate, position, repetition, message
+              .subSequence(start, end).toString(), EDIMessageParser.FIELD), segmentElement);
+      return;
+    }
+    MessageElementData data =
+        new MessageElementData(path, name, usage, min, max, startCoordinate, endCoordinate,
+            position, repetition, null, EDIMessageParser.FIELD);
+    MessageElement el = new MessageElement(EDIMessageParser.NODE_FIELD, data, segmentElement);
+    for (int i = 0; i < componentCount; i++) {
+      int componentStart = components[2 * i];
+      int componentEnd = components[2 * i + 1];
+      if (componentStart == componentEnd) {
+        continue;
+      }
+      Component component = component(datatype, i + 1);
+      String componentPath = path + "." + (i + 1) + "[1]";
+      String componentName = component != null ? context.string(component.name()) : componentPath;
+      String componentUsage = usage(component != null ? component.req() : null);
+      Coordinate componentCoordinate = coordinate(componentStart);
+      Coordinate componentEndCoordinate = end(componentStart);
+      MessageElementData componentData =
+          new MessageElementData(componentPath, componentName, componentUsage, -1, null,
+              componentCoordinate, componentEndCoordinate, i + 1, 1, message.subSequence(
+                  componentStart, componentEnd).toString(), EDIMessageParser.COMPONENT);
+      new LeafMessageElement(EDIMessageParser.NODE_COMPONENT, componentData, el);
+    }
+  }
+
+  @Override
+  public void endSegment(int end) {
+    segmentElement = null;
+    segment = null;
+    segmentPath = null;
+  }
+
+  private Field field(int position) {
+    if (segment == null) {
+      return null;
+    }
+    Iterator<Field> it = segment.fields().iterator();
+    while (it.hasNext()) {
+      Field f = it.next();
+      if (f.req().position() == position) {
+        return f;
+      }
+    }
+    return null;
+  }
+
+  private Component component(Datatype datatype, int position) {
+    if (!(datatype instanceof Composite)) {
+      return null;
+    }
+    Iterator<Component> it = ((Composite) datatype).components().iterator();
+    while (it.hasNext()) {
+      Component c = it.next();
+      if (c.req().position() == position) {
+        return c;
+      }
+    }
+    return null;
+  }
+
+  private String usage(Req req) {
+    return req != null && req.usage() != null ? context.string(req.usage().toString()) : null;
+  }
+
+  private void index(scala.collection.immutable.List<SegRefOrGroup> structure) {
+    Iterator<SegRefOrGroup> it = structure.iterator();
+    while (it.hasNext()) {
+      SegRefOrGroup ref = it.next();
+      if (ref instanceof SegmentRef) {
+        String name = ((SegmentRef) ref).ref().name();
+        if (!segmentRefs.containsKey(name)) {
+          segmentRefs.put(name, (SegmentRef) ref);
+        }
+      } else if (ref instanceof Group) {
+        index(((Group) ref).structure());
+      }
+    }
+  }
+
+  private void indexLines(int firstLineStart, int from, int to) {
+    List<Integer> starts = new ArrayList<Integer>();
+    starts.add(firstLineStart);
+    for (int i = from; i < to; i++) {
+      if (message.charAt(i) == '\n') {
+        starts.add(i + 1);
+      }
+    }
+    lineStarts = new int[starts.size()];
+    for (int i = 0; i < lineStarts.length; i++) {
+      lineStarts[i] = starts.get(i);
+    }
+    lineCount = lineStarts.length;
+  }
+
+  private int line(int offset) {
+    int low = 0;
+    int high = lineCount - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (lineStarts[mid] <= offset) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Same convention as the profile based parser: 1 based line and 0 based column
+   */
+  private Coordinate coordinate(int offset) {
+    int line = line(offset);
+    return new Coordinate(firstLine + line, offset - lineStarts[line]);
+  }
+
+  private Coordinate end(int offset) {
+    return new Coordinate(firstLine + line(offset), -1);
+  }
+
+}
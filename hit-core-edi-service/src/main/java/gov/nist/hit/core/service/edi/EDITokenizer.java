@@ -0,0 +1,246 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+/**
+ * Single pass tokenizer of EDIFACT style messages (NCPDP SCRIPT). The separators are read from the
+ * UNA service string when present. Segments, fields, repetitions and components are reported to a
+ * {@link Handler} as offset ranges in the message; no substring is created.
+ */
+public class EDITokenizer {
+
+  public static final String SERVICE_STRING = "UNA";
+
+  /**
+   * Receives the boundaries found by the tokenizer, in message order
+   */
+  public interface Handler {
+
+    /**
+     * 
+     * @param start: offset of the segment
+     * @param tagEnd: end offset (exclusive) of the segment tag
+     */
+    void segment(int start, int tagEnd);
+
+    /**
+     * 
+     * @param position: 1 based position of the field in the segment
+     * @param repetition: 1 based repetition of the field
+     * @param start: offset of the field
+     * @param end: end offset (exclusive) of the field
+     * @param components: start and end offsets of the components, two entries per component. The
+     *        array is reused between calls.
+     * @param componentCount
+     */
+    void field(int position, int repetition, int start, int end, int[] components,
+        int componentCount);
+
+    /**
+     * 
+     * @param end: offset of the segment terminator or the end of the scanned range
+     */
+    void endSegment(int end);
+  }
+
+  /**
+   * Separators of a message
+   */
+  public static class Delimiters {
+
+    public static final Delimiters DEFAULT = new Delimiters(':', '+', '.', '/', '*', '\'');
+
+    private final char component;
+    private final char field;
+    private final char decimal;
+    private final char release;
+    private final char repetition;
+    private final char segment;
+
+    public Delimiters(char component, char field, char decimal, char release, char repetition,
+        char segment) {
+      this.component = component;
+      this.field = field;
+      this.decimal = decimal;
+      this.release = release;
+      this.repetition = repetition;
+      this.segment = segment;
+    }
+
+    public char getComponent() {
+      return component;
+    }
+
+    public char getField() {
+      return field;
+    }
+
+    public char getDecimal() {
+      return decimal;
+    }
+
+    public char getRelease() {
+      return release;
+    }
+
+    /**
+     * @return the repetition separator, a space when repetitions are not used
+     */
+    public char getRepetition() {
+      return repetition;
+    }
+
+    public char getSegment() {
+      return segment;
+    }
+  }
+
+  private int[] components = new int[32];
+
+  /**
+   * Reads the separators of the message from its UNA service string
+   * 
+   * @param message
+   * @return the separators or the defaults when the message has no UNA service string
+   */
+  public static Delimiters delimiters(CharSequence message) {
+    int i = skipLineBreaks(message, 0);
+    if (isServiceString(message, i)) {
+      return new Delimiters(message.charAt(i + 3), message.charAt(i + 4), message.charAt(i + 5),
+          message.charAt(i + 6), message.charAt(i + 7), message.charAt(i + 8));
+    }
+    return Delimiters.DEFAULT;
+  }
+
+  /**
+   * Scans the message once and reports its boundaries to the handler. The UNA service string is
+   * not reported.
+   * 
+   * @param message
+   * @param handler
+   * @return the separators of the message
+   */
+  public Delimiters tokenize(CharSequence message, Handler handler) {
+    Delimiters delimiters = delimiters(message);
+    tokenize(message, contentStart(message), message.length(), delimiters, handler);
+    return delimiters;
+  }
+
+  /**
+   * Scans the segments in a range of the message
+   * 
+   * @param message
+   * @param from: offset of the first segment
+   * @param to: end offset (exclusive) of the range, the end of a segment
+   * @param delimiters
+   * @param handler
+   */
+  public void tokenize(CharSequence message, int from, int to, Delimiters delimiters,
+      Handler handler) {
+    char fieldSeparator = delimiters.getField();
+    char componentSeparator = delimiters.getComponent();
+    char release = delimiters.getRelease();
+    char segmentTerminator = delimiters.getSegment();
+    // a space in the UNA service string means repetitions are not used
+    char repetitionSeparator = delimiters.getRepetition() != ' ' ? delimiters.getRepetition() : 0;
+    int i = skipLineBreaks(message, from);
+    while (i < to) {
+      int start = i;
+      while (i < to) {
+        char c = message.charAt(i);
+        if (c == fieldSeparator || c == segmentTerminator) {
+          break;
+        }
+        i += c == release ? 2 : 1;
+      }
+      i = Math.min(i, to);
+      handler.segment(start, i);
+      if (i < to && message.charAt(i) == fieldSeparator) {
+        int position = 1;
+        int repetition = 1;
+        int fieldStart = ++i;
+        int componentStart = i;
+        int count = 0;
+        while (true) {
+          char c = i < to ? message.charAt(i) : segmentTerminator;
+          if (i < to && c == release) {
+            i += 2;
+            continue;
+          }
+          if (i < to && c == componentSeparator) {
+            count = addComponent(count, componentStart, i);
+            componentStart = i + 1;
+          } else if (c == fieldSeparator || c == segmentTerminator
+              || (repetitionSeparator != 0 && c == repetitionSeparator)) {
+            int end = Math.min(i, to);
+            count = addComponent(count, componentStart, end);
+            handler.field(position, repetition, fieldStart, end, components, count);
+            if (i >= to) {
+              break;
+            } else if (c == repetitionSeparator && c != fieldSeparator && c != segmentTerminator) {
+              repetition++;
+            } else if (c == fieldSeparator) {
+              position++;
+              repetition = 1;
+            } else {
+              break;
+            }
+            fieldStart = i + 1;
+            componentStart = i + 1;
+            count = 0;
+          }
+          i++;
+        }
+      }
+      int end = Math.min(i, to);
+      handler.endSegment(end);
+      i = skipLineBreaks(message, end + 1);
+    }
+  }
+
+  /**
+   * 
+   * @param message
+   * @return offset of the first segment, after the UNA service string
+   */
+  public static int contentStart(CharSequence message) {
+    int i = skipLineBreaks(message, 0);
+    if (isServiceString(message, i)) {
+      i = skipLineBreaks(message, i + 9);
+    }
+    return i;
+  }
+
+  private int addComponent(int count, int start, int end) {
+    if (2 * count + 1 >= components.length) {
+      int[] grown = new int[components.length * 2];
+      System.arraycopy(components, 0, grown, 0, components.length);
+      components = grown;
+    }
+    components[2 * count] = start;
+    components[2 * count + 1] = end;
+    return count + 1;
+  }
+
+  private static boolean isServiceString(CharSequence message, int i) {
+    return message.length() >= i + 9 && message.charAt(i) == 'U' && message.charAt(i + 1) == 'N'
+        && message.charAt(i + 2) == 'A';
+  }
+
+  private static int skipLineBreaks(CharSequence message, int i) {
+    while (i < message.length() && (message.charAt(i) == '\r' || message.charAt(i) == '\n')) {
+      i++;
+    }
+    return i;
+  }
+
+}
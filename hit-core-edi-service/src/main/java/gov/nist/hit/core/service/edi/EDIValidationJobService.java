@@ -0,0 +1,296 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.MessageValidationCommand;
+import gov.nist.hit.core.domain.MessageValidationResult;
+import gov.nist.hit.core.domain.TestContext;
+import gov.nist.hit.core.edi.domain.EDIValidationJob;
+import gov.nist.hit.core.edi.domain.EDIValidationJob.Status;
+import gov.nist.hit.core.service.exception.MessageValidationException;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs validations on a bounded worker pool so that large messages do not hold servlet threads.
+ * Clients submit a validation, receive a job id and poll (or long-poll) for the result.
+ * 
+ * Configuration:
+ * <ul>
+ * <li>edi.validation.jobs.workers: number of worker threads</li>
+ * <li>edi.validation.jobs.queueCapacity: number of jobs waiting for a worker</li>
+ * <li>edi.validation.jobs.rejection: ABORT to refuse jobs when the queue is full, CALLER_RUNS to
+ * run them on the submitting thread</li>
+ * <li>edi.validation.jobs.retentionSeconds: how long finished jobs can be polled</li>
+ * <li>edi.validation.jobs.maxCompleted: number of finished jobs kept, the oldest are dropped first
+ * </li>
+ * <li>edi.validation.jobs.maxWaitSeconds: upper bound of a long-poll</li>
+ * <li>edi.validation.jobs.maxWaiters: number of long-polls waiting at once, other polls return
+ * immediately</li>
+ * </ul>
+ * 
+ * Finished jobs are purged in the background once their retention is over.
+ */
+@Service
+public class EDIValidationJobService {
+
+  static final Logger logger = LoggerFactory.getLogger(EDIValidationJobService.class);
+
+  public static final String REJECTION_ABORT = "ABORT";
+  public static final String REJECTION_CALLER_RUNS = "CALLER_RUNS";
+
+  @Autowired
+  private EDIMessageValidator messageValidator;
+
+  @Value("${edi.validation.jobs.workers:2}")
+  private int workers;
+
+  @Value("${edi.validation.jobs.queueCapacity:100}")
+  private int queueCapacity;
+
+  @Value("${edi.validation.jobs.rejection:ABORT}")
+  private String rejection;
+
+  @Value("${edi.validation.jobs.retentionSeconds:600}")
+  private long retentionSeconds;
+
+  @Value("${edi.validation.jobs.maxCompleted:1000}")
+  private int maxCompleted;
+
+  @Value("${edi.validation.jobs.maxWaitSeconds:30}")
+  private long maxWaitSeconds;
+
+  @Value("${edi.validation.jobs.maxWaiters:4}")
+  private int maxWaiters;
+
+  private final Map<String, JobHandle> jobs = new ConcurrentHashMap<String, JobHandle>();
+
+  /**
+   * Finished jobs in completion order
+   */
+  private final Deque<JobHandle> completed = new ArrayDeque<JobHandle>();
+
+  private ThreadPoolExecutor executor;
+
+  private ScheduledExecutorService purger;
+
+  private Semaphore waiters;
+
+  @PostConstruct
+  public void init() {
+    RejectedExecutionHandler handler =
+        REJECTION_CALLER_RUNS.equalsIgnoreCase(rejection) ? new ThreadPoolExecutor.CallerRunsPolicy()
+            : new ThreadPoolExecutor.AbortPolicy();
+    executor =
+        new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueCapacity), new WorkerThreadFactory(
+                "edi-validation-"), handler);
+    waiters = new Semaphore(maxWaiters);
+    long purgePeriod = Math.max(1L, Math.min(retentionSeconds, 60L));
+    purger =
+        Executors.newSingleThreadScheduledExecutor(new WorkerThreadFactory(
+            "edi-validation-purge-"));
+    purger.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        purgeExpired();
+      }
+    }, purgePeriod, purgePeriod, TimeUnit.SECONDS);
+    logger.info("Validation job pool started with " + workers + " workers, queue capacity "
+        + queueCapacity + " and rejection policy " + rejection);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    if (purger != null) {
+      purger.shutdownNow();
+    }
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Queues the validation of the message
+   * 
+   * @param testContext
+   * @param command
+   * @return the pending job
+   * @throws MessageValidationException if the queue is full
+   */
+  public EDIValidationJob submit(final TestContext testContext,
+      final MessageValidationCommand command) throws MessageValidationException {
+    final JobHandle handle =
+        new JobHandle(new EDIValidationJob(UUID.randomUUID().toString(), testContext.getId()));
+    jobs.put(handle.job.getId(), handle);
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          handle.run(testContext, command);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      jobs.remove(handle.job.getId());
+      throw new MessageValidationException(
+          "Too many validations in progress. Please try again later");
+    }
+    return handle.snapshot();
+  }
+
+  /**
+   * 
+   * @param jobId
+   * @param waitMillis: how long to wait for the job to finish before returning, 0 to return
+   *        immediately. Returns immediately as well when maxWaiters polls are already waiting.
+   * @return the job or null if it is unknown or expired
+   * @throws InterruptedException
+   */
+  public EDIValidationJob get(String jobId, long waitMillis) throws InterruptedException {
+    JobHandle handle = jobs.get(jobId);
+    if (handle == null) {
+      return null;
+    }
+    if (waitMillis > 0 && waiters.tryAcquire()) {
+      try {
+        handle.done.await(Math.min(waitMillis, TimeUnit.SECONDS.toMillis(maxWaitSeconds)),
+            TimeUnit.MILLISECONDS);
+      } finally {
+        waiters.release();
+      }
+    }
+    return handle.snapshot();
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  void purgeExpired() {
+    long expiredBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(retentionSeconds);
+    synchronized (completed) {
+      while (!completed.isEmpty() && completed.peekFirst().completedAt() < expiredBefore) {
+        jobs.remove(completed.removeFirst().job.getId());
+      }
+    }
+  }
+
+  /**
+   * Keeps the finished job until it expires, dropping the oldest finished jobs past maxCompleted
+   */
+  private void completed(JobHandle handle) {
+    synchronized (completed) {
+      completed.addLast(handle);
+      while (completed.size() > maxCompleted) {
+        jobs.remove(completed.removeFirst().job.getId());
+      }
+    }
+  }
+
+  private class JobHandle {
+
+    private final EDIValidationJob job;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    JobHandle(EDIValidationJob job) {
+      this.job = job;
+    }
+
+    void run(TestContext testContext, MessageValidationCommand command) {
+      synchronized (this) {
+        job.setStatus(Status.RUNNING);
+        job.setStartedAt(System.currentTimeMillis());
+      }
+      MessageValidationResult result = null;
+      String error = null;
+      try {
+        result = messageValidator.validate(testContext, command);
+        if (result == null) {
+          // the validator logs and swallows the rendering errors
+          error = "The validation returned no report";
+        }
+      } catch (Exception e) {
+        logger.error("Validation job " + job.getId() + " failed", e);
+        error = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+      }
+      synchronized (this) {
+        job.setResult(result);
+        job.setError(error);
+        job.setStatus(error == null ? Status.COMPLETED : Status.FAILED);
+        job.setCompletedAt(System.currentTimeMillis());
+      }
+      completed(this);
+      done.countDown();
+    }
+
+    synchronized long completedAt() {
+      return job.getCompletedAt();
+    }
+
+    synchronized EDIValidationJob snapshot() {
+      EDIValidationJob copy = new EDIValidationJob(job.getId(), job.getTestContextId());
+      copy.setStatus(job.getStatus());
+      copy.setSubmittedAt(job.getSubmittedAt());
+      copy.setStartedAt(job.getStartedAt());
+      copy.setCompletedAt(job.getCompletedAt());
+      copy.setResult(job.getResult());
+      copy.setError(job.getError());
+      return copy;
+    }
+  }
+
+  private static class WorkerThreadFactory implements ThreadFactory {
+
+    private final String prefix;
+    private final AtomicInteger count = new AtomicInteger();
+
+    WorkerThreadFactory(String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, prefix + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
+}
@@ -12,24 +12,33 @@
 package gov.nist.hit.core.service.edi;
 
 
-import gov.nist.healthcare.unified.converters.XMLConverter;
-import gov.nist.healthcare.unified.model.EnhancedReport;
 import gov.nist.hit.core.service.ValidationReportConverter;
 
+import org.springframework.beans.factory.annotation.Autowired;
+
 /**
  * @author Harold Affo (NIST)
  */
 
 public abstract class EDIValidationReportConverter implements ValidationReportConverter {
 
+  @Autowired
+  private ReportCache reportCache;
+
   /**
-   * TODO: Implement the method
+   * Reuses the report and its xml rendition when the report is cached
    */
   @Override
   public String toXML(String json) throws Exception {
-    EnhancedReport report = EnhancedReport.from("json", json);
-    String xml = new XMLConverter().convert(report);
-    return xml;
+    return reportCache.fromJson(json).getXml();
+  }
+
+  public ReportCache getReportCache() {
+    return reportCache;
+  }
+
+  public void setReportCache(ReportCache reportCache) {
+    this.reportCache = reportCache;
   }
 
 }
\ No newline at end of file
@@ -0,0 +1,105 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import hl7.v2.instance.Message;
+import hl7.v2.instance.Segment;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Short lived cache of the messages parsed in lazy mode, keyed by a generated parse id. Entries
+ * expire after a time to live and the least recently used entries are evicted past the maximum
+ * size.
+ */
+@Service
+public class ParsedMessageCache {
+
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L;
+
+  private final BoundedCache<String, ParsedMessage> messages;
+  private final long ttlMillis;
+
+  public ParsedMessageCache() {
+    this(DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS);
+  }
+
+  public ParsedMessageCache(int maxSize, long ttlMillis) {
+    this.messages = new BoundedCache<String, ParsedMessage>(maxSize);
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * 
+   * @param message
+   * @param segments: the segments of the message in order
+   * @return the parse id
+   */
+  public String put(Message message, List<Segment> segments) {
+    String parseId = UUID.randomUUID().toString();
+    messages.put(parseId, new ParsedMessage(message, segments, System.currentTimeMillis()
+        + ttlMillis));
+    return parseId;
+  }
+
+  /**
+   * 
+   * @param parseId
+   * @return the parsed message or null when unknown or expired
+   */
+  public ParsedMessage get(String parseId) {
+    ParsedMessage parsed = messages.getIfPresent(parseId);
+    if (parsed != null && parsed.expiresAt < System.currentTimeMillis()) {
+      messages.invalidate(parseId);
+      return null;
+    }
+    return parsed;
+  }
+
+  public void invalidate(String parseId) {
+    messages.invalidate(parseId);
+  }
+
+  public int size() {
+    return messages.size();
+  }
+
+  public long getTtlMillis() {
+    return ttlMillis;
+  }
+
+  public static class ParsedMessage {
+    private final Message message;
+    private final List<Segment> segments;
+    private final long expiresAt;
+
+    private ParsedMessage(Message message, List<Segment> segments, long expiresAt) {
+      this.message = message;
+      this.segments = segments;
+      this.expiresAt = expiresAt;
+    }
+
+    public Message getMessage() {
+      return message;
+    }
+
+    public List<Segment> getSegments() {
+      return segments;
+    }
+  }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.ConformanceProfile;
+import gov.nist.hit.core.edi.repo.EDITestContextRepository;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Index of the conformance profile json, keyed by the id of the conformance profile. Clients load
+ * the message skeleton first and fetch the segments and datatypes they expand by id, instead of
+ * downloading the whole profile json.
+ * 
+ * Entries are built when the resources of a test context are warmed up, or on the first request
+ * of the profile otherwise. A request only reads the id of the conformance profile of the test
+ * context. The loader clears the index after each load, since the profiles may have been replaced.
+ */
+@Service
+public class ProfileJsonIndex {
+
+  public static final int DEFAULT_MAX_SIZE = 32;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @Autowired
+  private EDITestContextRepository testContextRepository;
+
+  private final BoundedCache<Long, Entry> entries;
+
+  public ProfileJsonIndex() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  public ProfileJsonIndex(int maxSize) {
+    this.entries = new BoundedCache<Long, Entry>(maxSize);
+  }
+
+  /**
+   * Indexes the json of the conformance profile, replacing the previous entry of the profile
+   * 
+   * @param profile
+   * @throws IOException
+   */
+  public void index(ConformanceProfile profile) throws IOException {
+    if (profile != null && profile.getId() != null && profile.getJson() != null) {
+      entries.put(profile.getId(), new Entry(MAPPER.readTree(profile.getJson())));
+    }
+  }
+
+  /**
+   * 
+   * @param testContextId
+   * @return the message structure with the ids of the segments and datatypes, null when the test
+   *         context has no conformance profile
+   * @throws IOException
+   */
+  public JsonNode skeleton(Long testContextId) throws IOException {
+    Entry entry = entry(testContextId);
+    return entry != null ? entry.skeleton : null;
+  }
+
+  /**
+   * 
+   * @param testContextId
+   * @param segmentId
+   * @return the segment with the given id or null
+   * @throws IOException
+   */
+  public JsonNode segment(Long testContextId, String segmentId) throws IOException {
+    return element(entry(testContextId), "segments", segmentId);
+  }
+
+  /**
+   * 
+   * @param testContextId
+   * @param datatypeId
+   * @return the datatype with the given id or null
+   * @throws IOException
+   */
+  public JsonNode datatype(Long testContextId, String datatypeId) throws IOException {
+    return element(entry(testContextId), "datatypes", datatypeId);
+  }
+
+  public void invalidate(Long conformanceProfileId) {
+    entries.invalidate(conformanceProfileId);
+  }
+
+  public void invalidateAll() {
+    entries.invalidateAll();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  private static JsonNode element(Entry entry, String type, String id) {
+    JsonNode elements = entry != null ? entry.root.get(type) : null;
+    return elements != null ? elements.get(id) : null;
+  }
+
+  private Entry entry(final Long testContextId) throws IOException {
+    Long profileId = testContextRepository.findConformanceProfileIdByTestContextId(testContextId);
+    if (profileId == null) {
+      return null;
+    }
+    try {
+      return entries.get(profileId, new BoundedCache.Loader<Long, Entry>() {
+        @Override
+        public Entry load(Long key) throws Exception {
+          ConformanceProfile profile =
+              testContextRepository.findConformanceProfileByTestContextId(testContextId);
+          return profile != null && profile.getJson() != null ? new Entry(MAPPER
+              .readTree(profile.getJson())) : null;
+        }
+      });
+    } catch (IOException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static class Entry {
+    private final JsonNode root;
+    private final JsonNode skeleton;
+
+    private Entry(JsonNode root) {
+      this.root = root;
+      ObjectNode skeleton = MAPPER.createObjectNode();
+      skeleton.set("message", root.get("message"));
+      skeleton.set("segments", ids(root.get("segments")));
+      skeleton.set("datatypes", ids(root.get("datatypes")));
+      this.skeleton = skeleton;
+    }
+
+    private static ArrayNode ids(JsonNode elements) {
+      ArrayNode ids = MAPPER.createArrayNode();
+      if (elements != null) {
+        Iterator<String> it = elements.fieldNames();
+        while (it.hasNext()) {
+          ids.add(it.next());
+        }
+      }
+      return ids;
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.ProfileElement;
+import gov.nist.hit.core.domain.ProfileModel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes a {@link ProfileModel} as json to an output stream, one element at a time, so the whole
+ * profile json is never held in memory. The output has the same message, segments and datatypes
+ * properties as the json of the model.
+ */
+public class ProfileModelWriter {
+
+  private final ObjectMapper mapper;
+
+  public ProfileModelWriter() {
+    this(new ObjectMapper());
+  }
+
+  public ProfileModelWriter(ObjectMapper mapper) {
+    this.mapper = mapper;
+  }
+
+  /**
+   * 
+   * @param model
+   * @param out: left open
+   * @throws IOException
+   */
+  public void write(ProfileModel model, OutputStream out) throws IOException {
+    write(model, mapper.getFactory().createGenerator(out, JsonEncoding.UTF8));
+  }
+
+  /**
+   * 
+   * @param model
+   * @param writer: left open
+   * @throws IOException
+   */
+  public void write(ProfileModel model, Writer writer) throws IOException {
+    write(model, mapper.getFactory().createGenerator(writer));
+  }
+
+  private void write(ProfileModel model, JsonGenerator generator) throws IOException {
+    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    try {
+      generator.writeStartObject();
+      generator.writeFieldName("message");
+      mapper.writeValue(generator, model.getMessage());
+      writeElements(generator, "segments", model.getSegments());
+      writeElements(generator, "datatypes", model.getDatatypes());
+      generator.writeEndObject();
+    } finally {
+      generator.close();
+    }
+  }
+
+  private void writeElements(JsonGenerator generator, String name,
+      Map<String, ProfileElement> elements) throws IOException {
+    generator.writeFieldName(name);
+    if (elements == null) {
+      generator.writeNull();
+      return;
+    }
+    generator.writeStartObject();
+    for (Map.Entry<String, ProfileElement> entry : elements.entrySet()) {
+      generator.writeFieldName(entry.getKey());
+      mapper.writeValue(generator, entry.getValue());
+      generator.flush();
+    }
+    generator.writeEndObject();
+  }
+
+}
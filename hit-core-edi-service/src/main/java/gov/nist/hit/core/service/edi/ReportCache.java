@@ -0,0 +1,157 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.healthcare.unified.converters.XMLConverter;
+import gov.nist.healthcare.unified.model.EnhancedReport;
+import gov.nist.hit.core.edi.domain.util.Util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+
+/**
+ * Validation reports and their renditions, keyed by report id. The id of a report is the SHA-256
+ * hash of its json rendition. Each format is rendered on first request only and reused by later
+ * downloads and conversions.
+ */
+@Service
+public class ReportCache {
+
+  public static final String JSON = "json";
+  public static final String HTML = "html";
+  public static final String XML = "xml";
+
+  public static final int DEFAULT_MAX_SIZE = 200;
+
+  private final BoundedCache<String, RenderedReport> reports;
+
+  public ReportCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  public ReportCache(int maxSize) {
+    this.reports = new BoundedCache<String, RenderedReport>(maxSize);
+  }
+
+  /**
+   * 
+   * @param format
+   * @return true when reports can be rendered in the format
+   */
+  public static boolean isFormat(String format) {
+    return JSON.equals(format) || HTML.equals(format) || XML.equals(format);
+  }
+
+  /**
+   * Caches the report
+   * 
+   * @param report
+   * @return the cached report
+   * @throws Exception
+   */
+  public RenderedReport put(EnhancedReport report) throws Exception {
+    String json = report.to(JSON).toString();
+    RenderedReport rendered = new RenderedReport(Util.contentHash(json), report, json);
+    reports.put(rendered.getId(), rendered);
+    return rendered;
+  }
+
+  /**
+   * 
+   * @param json: json rendition of a report
+   * @return the cached report, parsing and caching the json if it is not cached yet
+   * @throws Exception
+   */
+  public RenderedReport fromJson(final String json) throws Exception {
+    return reports.get(Util.contentHash(json), new BoundedCache.Loader<String, RenderedReport>() {
+      @Override
+      public RenderedReport load(String id) throws Exception {
+        return new RenderedReport(id, EnhancedReport.from(JSON, json), json);
+      }
+    });
+  }
+
+  /**
+   * 
+   * @param id
+   * @return the cached report or null
+   */
+  public RenderedReport get(String id) {
+    return reports.getIfPresent(id);
+  }
+
+  public int size() {
+    return reports.size();
+  }
+
+  /**
+   * A report with its renditions rendered so far
+   */
+  public static class RenderedReport {
+
+    private final String id;
+    private final EnhancedReport report;
+    private final Map<String, String> renditions = new HashMap<String, String>();
+
+    RenderedReport(String id, EnhancedReport report, String json) {
+      this.id = id;
+      this.report = report;
+      this.renditions.put(JSON, json);
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public EnhancedReport getReport() {
+      return report;
+    }
+
+    public String getJson() throws Exception {
+      return render(JSON);
+    }
+
+    public String getHtml() throws Exception {
+      return render(HTML);
+    }
+
+    public String getXml() throws Exception {
+      return render(XML);
+    }
+
+    /**
+     * 
+     * @param format: json, html or xml
+     * @return the rendition of the report in the format
+     * @throws Exception
+     */
+    public synchronized String render(String format) throws Exception {
+      String rendition = renditions.get(format);
+      if (rendition == null) {
+        if (JSON.equals(format)) {
+          rendition = report.to(JSON).toString();
+        } else if (HTML.equals(format)) {
+          rendition = report.render("report", null);
+        } else if (XML.equals(format)) {
+          rendition = new XMLConverter().convert(report);
+        } else {
+          throw new IllegalArgumentException("Unsupported report format " + format);
+        }
+        renditions.put(format, rendition);
+      }
+      return rendition;
+    }
+  }
+
+}
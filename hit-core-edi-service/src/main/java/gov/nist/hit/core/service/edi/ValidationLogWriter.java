@@ -0,0 +1,203 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.healthcare.unified.model.EnhancedReport;
+import gov.nist.hit.core.domain.MessageValidationCommand;
+import gov.nist.hit.core.domain.TestContext;
+import gov.nist.hit.core.service.ValidationLogService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Saves validation logs from a background thread so that validations do not wait for the
+ * database. Logs are queued in a bounded queue and saved in batches, one transaction per batch.
+ * When the queue is full, the validating thread waits up to
+ * {@code edi.validation.log.offerTimeoutMillis} and then saves its log itself. Pending logs are
+ * saved on shutdown.
+ */
+@Service
+public class ValidationLogWriter {
+
+  static final Logger logger = LoggerFactory.getLogger(ValidationLogWriter.class);
+
+  @Autowired
+  private ValidationLogService validationLogService;
+
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  @Value("${edi.validation.log.queueCapacity:1000}")
+  private int queueCapacity;
+
+  @Value("${edi.validation.log.batchSize:50}")
+  private int batchSize;
+
+  @Value("${edi.validation.log.offerTimeoutMillis:200}")
+  private long offerTimeoutMillis;
+
+  private BlockingQueue<LogEntry> queue;
+  private TransactionTemplate transactionTemplate;
+  private Thread writer;
+  private volatile boolean running;
+
+  /**
+   * Held for reading while a log is queued and for writing when stopping, so that no log is queued
+   * once the pending logs are drained
+   */
+  private final ReadWriteLock queueLock = new ReentrantReadWriteLock();
+
+  @PostConstruct
+  public void start() {
+    queue = new ArrayBlockingQueue<LogEntry>(queueCapacity);
+    if (transactionManager != null) {
+      transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+    running = true;
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        List<LogEntry> batch = new ArrayList<LogEntry>(batchSize);
+        while (running) {
+          try {
+            LogEntry first = queue.poll(500, TimeUnit.MILLISECONDS);
+            if (first != null) {
+              batch.add(first);
+              queue.drainTo(batch, batchSize - 1);
+              save(batch);
+              batch.clear();
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+          }
+        }
+      }
+    }, "edi-validation-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    queueLock.writeLock().lock();
+    try {
+      running = false;
+    } finally {
+      queueLock.writeLock().unlock();
+    }
+    if (writer != null) {
+      writer.join(TimeUnit.SECONDS.toMillis(30));
+    }
+    List<LogEntry> remaining = new ArrayList<LogEntry>();
+    queue.drainTo(remaining);
+    while (!remaining.isEmpty()) {
+      int end = Math.min(batchSize, remaining.size());
+      save(new ArrayList<LogEntry>(remaining.subList(0, end)));
+      remaining.subList(0, end).clear();
+    }
+  }
+
+  /**
+   * Queues the validation log of the report
+   * 
+   * @param command
+   * @param testContext
+   * @param report
+   */
+  public void write(MessageValidationCommand command, TestContext testContext,
+      EnhancedReport report) {
+    LogEntry entry = new LogEntry(command, testContext, report);
+    boolean queued = false;
+    queueLock.readLock().lock();
+    try {
+      if (running) {
+        queued = queue.offer(entry, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      queueLock.readLock().unlock();
+    }
+    if (!queued) {
+      save(Collections.singletonList(entry));
+    }
+  }
+
+  public int getPending() {
+    return queue != null ? queue.size() : 0;
+  }
+
+  private void save(final List<LogEntry> batch) {
+    if (transactionTemplate != null) {
+      try {
+        transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+          @Override
+          protected void doInTransactionWithoutResult(TransactionStatus status) {
+            for (LogEntry entry : batch) {
+              entry.save();
+            }
+          }
+        });
+        return;
+      } catch (RuntimeException e) {
+        logger.warn("Failed to save a batch of " + batch.size()
+            + " validation logs, saving them one by one", e);
+      }
+    }
+    for (LogEntry entry : batch) {
+      try {
+        entry.save();
+      } catch (RuntimeException e) {
+        logger.error("Failed to save validation log", e);
+      }
+    }
+  }
+
+  private class LogEntry {
+
+    private final MessageValidationCommand command;
+    private final TestContext testContext;
+    private final EnhancedReport report;
+
+    LogEntry(MessageValidationCommand command, TestContext testContext, EnhancedReport report) {
+      this.command = command;
+      this.testContext = testContext;
+      this.report = report;
+    }
+
+    void save() {
+      validationLogService.generateAndSave(command.getUserId(), testContext, report);
+    }
+  }
+
+}
@@ -0,0 +1,96 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.VocabularyLibrary;
+import gov.nist.hit.core.edi.domain.util.Util;
+import hl7.v2.validation.vs.ValueSetLibrary;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Value set libraries compiled from vocabulary library xml, keyed by the id and content hash of
+ * the vocabulary library. A compiled {@link ValueSetLibrary} is immutable and is shared by all the
+ * validations referencing the same vocabulary library.
+ * 
+ * TODO: the codes of a value set are still looked up by the {@link ValueSetLibrary} of the
+ * validation library, which scans the codes of the value set for each lookup. A constant time
+ * lookup needs a code index in that library.
+ */
+@Service
+public class ValueSetLibraryCache {
+
+  public static final int DEFAULT_MAX_SIZE = 16;
+
+  private final BoundedCache<String, ValueSetLibrary> libraries;
+
+  public ValueSetLibraryCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  @Autowired
+  public ValueSetLibraryCache(@Value("${edi.cache.valueSetLibraries.maxSize:16}") int maxSize) {
+    this.libraries = new BoundedCache<String, ValueSetLibrary>(maxSize);
+  }
+
+  /**
+   * 
+   * @param vocabularyLibrary
+   * @param loader: compiles the value set library when it is not cached yet
+   * @return
+   * @throws Exception
+   */
+  public ValueSetLibrary get(VocabularyLibrary vocabularyLibrary,
+      BoundedCache.Loader<String, ValueSetLibrary> loader) throws Exception {
+    return libraries.get(key(vocabularyLibrary), loader);
+  }
+
+  public ValueSetLibrary getIfPresent(VocabularyLibrary vocabularyLibrary) {
+    return libraries.getIfPresent(key(vocabularyLibrary));
+  }
+
+  /**
+   * Removes every compiled version of the vocabulary library with the given id
+   * 
+   * @param vocabularyLibraryId
+   */
+  public void invalidate(Long vocabularyLibraryId) {
+    if (vocabularyLibraryId == null) {
+      return;
+    }
+    String prefix = vocabularyLibraryId + ":";
+    for (String key : libraries.keys()) {
+      if (key.startsWith(prefix)) {
+        libraries.invalidate(key);
+      }
+    }
+  }
+
+  public void invalidateAll() {
+    libraries.invalidateAll();
+  }
+
+  public int size() {
+    return libraries.size();
+  }
+
+  public int getMaxSize() {
+    return libraries.getMaxSize();
+  }
+
+  String key(VocabularyLibrary vocabularyLibrary) {
+    return vocabularyLibrary.getId() + ":" + Util.contentHash(vocabularyLibrary.getXml());
+  }
+
+}
@@ -0,0 +1,222 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import static org.junit.Assert.assertEquals;
+import gov.nist.hit.core.domain.Coordinate;
+import gov.nist.hit.core.domain.MessageElement;
+import gov.nist.hit.core.domain.MessageElementData;
+import gov.nist.hit.core.domain.MessageModel;
+import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.edi.domain.EditableMessageModel;
+import gov.nist.hit.core.edi.domain.MessageEdit;
+import gov.nist.hit.core.edi.domain.MessageModelPatch;
+import gov.nist.hit.core.service.exception.MessageParserException;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The model of an edit session patched after each edit must be the model of a parse of the edited
+ * message. Both come from the tokenizer engine, so they are compared with each other and not with
+ * the JParser model.
+ */
+public class EDIIncrementalParserTest {
+
+  private EDIIncrementalParser parser;
+  private EDITestContext testContext;
+  private String message;
+
+  @Before
+  public void setUp() throws Exception {
+    parser = new EDIIncrementalParser();
+    parser.setProfileCache(new CompiledProfileCache());
+    parser.init();
+    testContext =
+        Fixtures.testContext(Fixtures.read(Fixtures.NEWRX_PROFILE), Fixtures.NEWRX_MESSAGE_ID);
+    message = Fixtures.read(Fixtures.NEWRX_MESSAGE);
+  }
+
+  @Test(expected = MessageParserException.class)
+  public void refusesMessagesWithGroups() throws Exception {
+    parser.parse(
+        Fixtures.testContext(Fixtures.read(Fixtures.NEWRX_PROFILE), Fixtures.RXHRES_MESSAGE_ID),
+        Fixtures.parserCommand(Fixtures.read(Fixtures.RXHRES_MESSAGE)));
+  }
+
+  @Test
+  public void editsAValue() throws Exception {
+    Editor editor = new Editor();
+    editor.replace("SMITH:MARY", "SMITH:MARIE");
+    editor.replace("SMITH:MARIE", "SMITH");
+  }
+
+  @Test
+  public void removesATerminator() throws Exception {
+    Editor editor = new Editor();
+    editor.replace("333445555:SY'", "333445555:SY");
+    editor.replace("333445555:SY", "333445555:SY'");
+  }
+
+  @Test
+  public void escapesATerminator() throws Exception {
+    Editor editor = new Editor();
+    editor.replace("333445555:SY'", "333445555:SY/'");
+    editor.replace("333445555:SY/'", "333445555:SY'");
+  }
+
+  @Test
+  public void insertsBetweenSegments() throws Exception {
+    Editor editor = new Editor();
+    editor.insert("PTT+", "DRU+P:ASPIRIN'\n");
+    editor.insert("UIT+", "DRU+P:ASPIRIN'");
+  }
+
+  @Test
+  public void insertsASegmentOfAnotherTag() throws Exception {
+    Editor editor = new Editor();
+    // one more PVD, the instance numbers of the segments after it change
+    editor.insert("PVD+PC", "PVD+P2+1234567:D3'\n");
+    editor.replace("PVD+P2+1234567:D3'\n", "");
+  }
+
+  @Test
+  public void changesTheTagOfASegment() throws Exception {
+    Editor editor = new Editor();
+    editor.replace("PVD+PC", "PTT+PC");
+    editor.replace("PTT+PC", "PVD+PC");
+  }
+
+  @Test
+  public void editsTheServiceString() throws Exception {
+    Editor editor = new Editor();
+    // repetitions are not used, the DRU field 4 is read as a single value
+    MessageModelPatch patch = editor.replace("UNA:+./*'", "UNA:+./ '");
+    assertEquals(" ", patch.getDelimeters().get("repetition_separator"));
+    editor.replace("UNA:+./ '", "UNA:+./*'");
+  }
+
+  @Test
+  public void editsBeforeTheFirstSegment() throws Exception {
+    Editor editor = new Editor();
+    editor.insert("UIB+", "\n");
+  }
+
+  @Test
+  public void joinsLines() throws Exception {
+    Editor editor = new Editor();
+    editor.replace("TE'\nPVD+PC", "TE'PVD+PC");
+    editor.replace("SY'\nDRU", "SY'DRU");
+  }
+
+  @Test
+  public void replacesSeveralLines() throws Exception {
+    Editor editor = new Editor();
+    editor.replace("PHARMACY++6152205656:TE'\nPVD+PC+6666666:0B+++JONES",
+        "PHARMACY'\nPVD+PC+6666666:0B'\n\nPVD+PC+5555555:0B+++JONES");
+    editor.replace("19541225+SMITH:MARY+F+333445555:SY'\nDRU+P", "19541225'\nDRU+P");
+  }
+
+  @Test
+  public void editsInsideASegmentOverSeveralLines() throws Exception {
+    Editor editor = new Editor();
+    editor.replace("JONES:MARK", "JONES:\nMARK");
+    editor.replace("+F+", "+\n\nF+");
+  }
+
+  /**
+   * Edits a message through an edit session and applies the patches to the model the way the
+   * editor does
+   */
+  private class Editor {
+    private final String parseId;
+    private final MessageModel model;
+    private String text;
+
+    private Editor() throws Exception {
+      EditableMessageModel parsed = parser.parse(testContext, Fixtures.parserCommand(message));
+      parseId = parsed.getParseId();
+      model = parsed;
+      text = message;
+    }
+
+    private MessageModelPatch insert(String before, String inserted) throws Exception {
+      int offset = offset(before);
+      return edit(offset, offset, inserted);
+    }
+
+    private MessageModelPatch replace(String replaced, String replacement) throws Exception {
+      int offset = offset(replaced);
+      return edit(offset, offset + replaced.length(), replacement);
+    }
+
+    private int offset(String s) {
+      int offset = text.indexOf(s);
+      if (offset < 0) {
+        throw new IllegalArgumentException(s + " not found in " + text);
+      }
+      return offset;
+    }
+
+    private MessageModelPatch edit(int start, int end, String replacement) throws Exception {
+      MessageModelPatch patch = parser.edit(parseId, new MessageEdit(start, end, replacement));
+      text = text.substring(0, start) + replacement + text.substring(end);
+      apply(patch);
+      EditableMessageModel expected = parser.parse(testContext, Fixtures.parserCommand(text));
+      parser.close(expected.getParseId());
+      assertEquals(Fixtures.describe(expected), Fixtures.describe(model));
+      assertEquals(expected.getDelimeters(), model.getDelimeters());
+      return patch;
+    }
+
+    private void apply(MessageModelPatch patch) {
+      List<MessageElement> elements = model.getElements();
+      elements.subList(patch.getFrom(), patch.getFrom() + patch.getDeleteCount()).clear();
+      elements.addAll(patch.getFrom(), patch.getElements());
+      if (patch.getDelimeters() != null) {
+        model.setDelimeters(patch.getDelimeters());
+        return;
+      }
+      // the value elements share the coordinates of their field or component
+      Set<Coordinate> moved =
+          Collections.newSetFromMap(new IdentityHashMap<Coordinate, Boolean>());
+      for (int i = patch.getFrom() + patch.getElements().size(); i < elements.size(); i++) {
+        move(elements.get(i), patch, moved);
+      }
+    }
+
+    private void move(MessageElement element, MessageModelPatch patch, Set<Coordinate> moved) {
+      MessageElementData data = element.getData();
+      move(data.getStart(), patch, moved);
+      move(data.getEnd(), patch, moved);
+      for (MessageElement child : element.getChildren()) {
+        move(child, patch, moved);
+      }
+    }
+
+    private void move(Coordinate coordinate, MessageModelPatch patch, Set<Coordinate> moved) {
+      if (coordinate == null || !moved.add(coordinate)) {
+        return;
+      }
+      if (coordinate.getLine() == patch.getLine() && coordinate.getColumn() >= 0) {
+        coordinate.setColumn(coordinate.getColumn() + patch.getColumnDelta());
+      }
+      coordinate.setLine(coordinate.getLine() + patch.getLineDelta());
+    }
+  }
+
+}
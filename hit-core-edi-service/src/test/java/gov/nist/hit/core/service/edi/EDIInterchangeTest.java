@@ -0,0 +1,87 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Transaction messages of an interchange and the mapping of their positions back to the
+ * interchange.
+ */
+public class EDIInterchangeTest {
+
+  private static final String HEADER = "UNA:+./*'\nUIB+UNOA:0++123'\n";
+  private static final String FIRST = "UIH+SCRIPT:010:006:NEWRX+1'\nPVD+P1'\nUIT+1+3'";
+  private static final String SECOND = "UIH+SCRIPT:010:006:NEWRX+2'\nPVD+P2'\nUIT+2+3'";
+
+  @Test
+  public void rewritesTheControlCountOfEachTransaction() {
+    EDIInterchange interchange = EDIInterchange.split(HEADER + FIRST + "\n" + SECOND + "\nUIZ++2'");
+    assertEquals(2, interchange.getTransactions().size());
+    assertEquals(HEADER + FIRST + "UIZ++1'", interchange.getTransactions().get(0).getContent());
+    assertEquals(HEADER + SECOND + "UIZ++1'", interchange.getTransactions().get(1).getContent());
+  }
+
+  @Test
+  public void keepsTheRestOfTheDeclaredCountForTheLastTransaction() {
+    EDIInterchange interchange =
+        EDIInterchange.split(HEADER + FIRST + "\n" + SECOND + "\nUIZ++10'");
+    assertEquals(HEADER + FIRST + "UIZ++1'", interchange.getTransactions().get(0).getContent());
+    assertEquals(HEADER + SECOND + "UIZ++9'", interchange.getTransactions().get(1).getContent());
+  }
+
+  @Test
+  public void keepsATrailerWithoutNumericCount() {
+    EDIInterchange interchange = EDIInterchange.split(HEADER + FIRST + SECOND + "UNZ+X'");
+    assertEquals(HEADER + FIRST + "UNZ+X'", interchange.getTransactions().get(0).getContent());
+    assertEquals(HEADER + SECOND + "UNZ+X'", interchange.getTransactions().get(1).getContent());
+  }
+
+  @Test
+  public void mapsPositionsToTheInterchange() {
+    EDIInterchange.Transaction transaction =
+        EDIInterchange.split(HEADER + FIRST + "\n" + SECOND + "\nUIZ++10'").getTransactions()
+            .get(1);
+    // PVD of the second transaction
+    assertEquals(7, transaction.line(4, 0));
+    assertEquals(4, transaction.column(4, 4));
+    // rewritten count and the segment terminator after it
+    assertEquals(9, transaction.line(5, 13));
+    assertEquals(5, transaction.column(5, 13));
+    assertEquals(7, transaction.column(5, 14));
+    assertTrue(transaction.isHeader(2, 0));
+    assertTrue(transaction.isTrailer(5, 13));
+    assertFalse(transaction.isEnvelope(4, 0));
+  }
+
+  @Test
+  public void doesNotSplitFunctionalGroups() {
+    assertNull(EDIInterchange.split(HEADER + "UNG+NEWRX'\n" + FIRST + "\n" + SECOND
+        + "\nUNE+2'\nUNZ+1'"));
+  }
+
+  @Test
+  public void doesNotSplitWithSegmentsBetweenTransactions() {
+    assertNull(EDIInterchange.split(HEADER + FIRST + "\nPVD+P3'\n" + SECOND + "\nUIZ++2'"));
+  }
+
+  @Test
+  public void doesNotSplitASingleTransaction() {
+    assertNull(EDIInterchange.split(HEADER + FIRST + "\nUIZ++1'"));
+  }
+
+}
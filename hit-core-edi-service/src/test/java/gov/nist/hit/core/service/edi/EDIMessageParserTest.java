@@ -0,0 +1,132 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.nist.hit.core.domain.MessageElement;
+import gov.nist.hit.core.domain.MessageModel;
+import gov.nist.hit.core.domain.MessageParserCommand;
+import gov.nist.hit.core.edi.domain.EDITestContext;
+import gov.nist.hit.core.edi.domain.LazyMessageModel;
+import gov.nist.hit.core.edi.domain.LeafMessageElement;
+import gov.nist.hit.core.edi.domain.MessageElementData;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The segments of a lazily parsed message expanded one by one must give the model of an eager
+ * parse, and the JParser and tokenizer engines must give the same model. Messages with groups
+ * are parsed by the JParser in both modes.
+ */
+public class EDIMessageParserTest {
+
+  private EDIMessageParser parser;
+  private EDITestContext testContext;
+  private MessageParserCommand command;
+
+  @Before
+  public void setUp() throws Exception {
+    parser = new EDIMessageParserImpl();
+    parser.setProfileCache(new CompiledProfileCache());
+    parser.setParsedMessageCache(new ParsedMessageCache());
+    testContext =
+        Fixtures.testContext(Fixtures.read(Fixtures.NEWRX_PROFILE), Fixtures.NEWRX_MESSAGE_ID);
+    command = Fixtures.parserCommand(Fixtures.read(Fixtures.NEWRX_MESSAGE));
+  }
+
+  @Test
+  public void expandedSkeletonMatchesEagerParse() throws Exception {
+    MessageModel eager = parser.parse(testContext, command);
+    assertFalse(eager.getElements().isEmpty());
+    LazyMessageModel lazy = parser.parseSkeleton(testContext, command);
+    StringBuilder expanded = new StringBuilder();
+    for (MessageElement segment : lazy.getElements()) {
+      String nodeId = ((MessageElementData) segment.getData()).getNodeId();
+      Fixtures.describe(segment, "", expanded, parser.expand(lazy.getParseId(), nodeId));
+    }
+    assertEquals(Fixtures.describe(eager), expanded.toString());
+    assertEquals(eager.getDelimeters(), lazy.getDelimeters());
+  }
+
+  @Test
+  public void tokenizerMatchesJParser() throws Exception {
+    assertEnginesMatch(command);
+  }
+
+  @Test
+  public void tokenizerMatchesJParserWithoutServiceString() throws Exception {
+    String content = command.getContent();
+    assertEnginesMatch(Fixtures.parserCommand(content.substring(content.indexOf("UIB"))));
+  }
+
+  @Test
+  public void tokenizerMatchesJParserOnOneLine() throws Exception {
+    assertEnginesMatch(Fixtures.parserCommand(command.getContent().replace("\n", "")));
+  }
+
+  @Test
+  public void tokenizerMatchesJParserOnSingleComponentComposites() throws Exception {
+    // the patient identification is a composite
+    assertEnginesMatch(Fixtures.parserCommand(command.getContent().replace("333445555:SY",
+        "333445555")));
+  }
+
+  @Test
+  public void tokenizerMatchesJParserWithGroups() throws Exception {
+    testContext =
+        Fixtures.testContext(Fixtures.read(Fixtures.NEWRX_PROFILE), Fixtures.RXHRES_MESSAGE_ID);
+    assertEnginesMatch(Fixtures.parserCommand(Fixtures.read(Fixtures.RXHRES_MESSAGE)));
+  }
+
+  @Test
+  public void serializesLeafValuesAsValueChildren() throws Exception {
+    parser.setParseMode(EDIMessageParser.ParseMode.TOKENIZER);
+    MessageModel model = parser.parse(testContext, command);
+    MessageElement leaf = leaf(model.getElements());
+    assertTrue(leaf != null && leaf.getChildren().isEmpty());
+    JsonNode json = new ObjectMapper().valueToTree(leaf);
+    assertTrue(json.get("data").get("value").isNull());
+    assertEquals(1, json.get("children").size());
+    JsonNode value = json.get("children").get(0);
+    assertEquals(LeafMessageElement.NODE_VALUE, value.get("type").asText());
+    assertEquals(leaf.getData().getValue(), value.get("data").get("value").asText());
+    assertEquals(leaf.getData().getPath(), value.get("data").get("path").asText());
+  }
+
+  private MessageElement leaf(List<MessageElement> elements) {
+    for (MessageElement element : elements) {
+      MessageElement leaf =
+          element instanceof LeafMessageElement ? element : leaf(element.getChildren());
+      if (leaf != null) {
+        return leaf;
+      }
+    }
+    return null;
+  }
+
+  private void assertEnginesMatch(MessageParserCommand command) throws Exception {
+    parser.setParseMode(EDIMessageParser.ParseMode.JPARSER);
+    MessageModel jparser = parser.parse(testContext, command);
+    parser.setParseMode(EDIMessageParser.ParseMode.TOKENIZER);
+    MessageModel tokenizer = parser.parse(testContext, command);
+    assertFalse(jparser.getElements().isEmpty());
+    assertEquals(Fixtures.describe(jparser), Fixtures.describe(tokenizer));
+  }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A parser shared by several threads, or building segments and datatypes on a fork join pool,
+ * must produce the same models as a sequential parse.
+ */
+public class EDIProfileParserTest {
+
+  private static final int THREADS = 4;
+  private static final int ROUNDS = 8;
+
+  private final List<String[]> profiles = new ArrayList<String[]>();
+  private final List<String> expected = new ArrayList<String>();
+
+  @Before
+  public void setUp() throws Exception {
+    String profileXml = Fixtures.read(Fixtures.NEWRX_PROFILE);
+    String constraintsXml = Fixtures.read(Fixtures.NEWRX_CONSTRAINTS);
+    profiles.add(new String[] {profileXml, Fixtures.NEWRX_MESSAGE_ID, constraintsXml});
+    profiles.add(new String[] {profileXml, Fixtures.RXHRES_MESSAGE_ID, constraintsXml});
+    EDIProfileParser parser = new EDIProfileParserImpl();
+    for (String[] profile : profiles) {
+      expected.add(Fixtures.describe(parser.parse(profile[0], profile[1], profile[2])));
+    }
+  }
+
+  @Test
+  public void parsesOnParallelThreadsLikeSequentially() throws Exception {
+    assertParallelParsesMatch(new EDIProfileParserImpl());
+  }
+
+  @Test
+  public void parsesWithForkJoinPoolLikeSequentially() throws Exception {
+    ForkJoinPool pool = new ForkJoinPool(THREADS);
+    try {
+      EDIProfileParser parser = new EDIProfileParserImpl();
+      parser.setForkJoinPool(pool);
+      for (int i = 0; i < profiles.size(); i++) {
+        String[] profile = profiles.get(i);
+        assertEquals(profile[1], expected.get(i),
+            Fixtures.describe(parser.parse(profile[0], profile[1], profile[2])));
+      }
+      assertParallelParsesMatch(parser);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private void assertParallelParsesMatch(final EDIProfileParser parser) throws Exception {
+    List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+    for (int round = 0; round < ROUNDS; round++) {
+      for (final String[] profile : profiles) {
+        tasks.add(new Callable<String>() {
+          @Override
+          public String call() throws Exception {
+            return Fixtures.describe(parser.parse(profile[0], profile[1], profile[2]));
+          }
+        });
+      }
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      List<Future<String>> results = executor.invokeAll(tasks);
+      for (int i = 0; i < results.size(); i++) {
+        int profile = i % profiles.size();
+        assertEquals(profiles.get(profile)[1], expected.get(profile), results.get(i).get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Boundaries reported by the tokenizer, including service strings declaring the same character
+ * for several separators.
+ */
+public class EDITokenizerTest {
+
+  private static final long TIMEOUT = 5000;
+
+  @Test
+  public void reportsSegmentsFieldsAndComponents() {
+    Recorder recorder = tokenize("UNA:+./*'\nUIB+UNOA:0++1234567'\nUIZ++1'");
+    assertEquals("[UIB, 1.1:UNOA|0, 3.1:1234567, UIZ, 2.1:1]", recorder.events.toString());
+  }
+
+  @Test
+  public void keepsReleasedSeparators() {
+    Recorder recorder = tokenize("UNA:+./*'PTT++SMITH/+JONES:MARY/''");
+    assertEquals("[PTT, 2.1:SMITH/+JONES|MARY/']", recorder.events.toString());
+  }
+
+  @Test
+  public void readsRepetitions() {
+    Recorder recorder = tokenize("DRU+85:19971001:102*ZDS:30:804'");
+    assertEquals("[DRU, 1.1:85|19971001|102, 1.2:ZDS|30|804]", recorder.events.toString());
+  }
+
+  /**
+   * The component separator hides the segment terminator: the rest of the message is one segment
+   * but the scan must end
+   */
+  @Test(timeout = TIMEOUT)
+  public void stopsWhenComponentSeparatorIsSegmentTerminator() {
+    Recorder recorder = tokenize("UNA'+./*'UIB+UNOA'0'UIZ++1'");
+    assertEquals("[UIB, 1.1:UNOA|0|UIZ, 3.1:1|]", recorder.events.toString());
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void stopsWhenRepetitionSeparatorIsSegmentTerminator() {
+    Recorder recorder = tokenize("UNA:+./''UIB+UNOA:0'UIZ++1'");
+    assertEquals("[UIB, 1.1:UNOA|0, UIZ, 2.1:1]", recorder.events.toString());
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void stopsWhenRepetitionSeparatorIsFieldSeparator() {
+    Recorder recorder = tokenize("UNA:+./+'UIB+UNOA:0++1234567'");
+    assertEquals("[UIB, 1.1:UNOA|0, 3.1:1234567]", recorder.events.toString());
+  }
+
+  @Test(timeout = TIMEOUT)
+  public void stopsAtTheEndOfTheRange() {
+    String message = "UNA:+./*'UIB+UNOA:0'UIZ++1'";
+    Recorder recorder = new Recorder(message);
+    int from = EDITokenizer.contentStart(message);
+    new EDITokenizer().tokenize(message, from, message.indexOf("UIZ") - 1,
+        EDITokenizer.delimiters(message), recorder);
+    assertEquals("[UIB, 1.1:UNOA|0]", recorder.events.toString());
+  }
+
+  private static Recorder tokenize(String message) {
+    Recorder recorder = new Recorder(message);
+    new EDITokenizer().tokenize(message, recorder);
+    return recorder;
+  }
+
+  /**
+   * Records segment tags and non empty fields as position.repetition:component|component
+   */
+  private static class Recorder implements EDITokenizer.Handler {
+
+    private final String message;
+    private final List<String> events = new ArrayList<String>();
+
+    Recorder(String message) {
+      this.message = message;
+    }
+
+    @Override
+    public void segment(int start, int tagEnd) {
+      events.add(message.substring(start, tagEnd));
+    }
+
+    @Override
+    public void field(int position, int repetition, int start, int end, int[] components,
+        int componentCount) {
+      if (start == end) {
+        return;
+      }
+      StringBuilder sb = new StringBuilder().append(position).append('.').append(repetition)
+          .append(':');
+      for (int i = 0; i < componentCount; i++) {
+        if (i > 0) {
+          sb.append('|');
+        }
+        sb.append(message, components[2 * i], components[2 * i + 1]);
+      }
+      events.add(sb.toString());
+    }
+
+    @Override
+    public void endSegment(int end) {}
+
+  }
+
+}
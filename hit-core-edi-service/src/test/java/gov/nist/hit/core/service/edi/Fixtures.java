@@ -0,0 +1,165 @@
+/**
+ * This software was developed at the National Institute of Standards and Technology by employees of
+ * the Federal Government in the course of their official duties. Pursuant to title 17 Section 105
+ * of the United States Code this software is not subject to copyright protection and is in the
+ * public domain. This is an experimental system. NIST assumes no responsibility whatsoever for its
+ * use by other parties, and makes no guarantees, expressed or implied, about its quality,
+ * reliability, or any other characteristic. We would appreciate acknowledgement if the software is
+ * used. This software can be redistributed and/or modified freely provided that any derivative
+ * works bear some notice that they are derived from it, and any modified versions bear some notice
+ * that they have been modified.
+ */
+package gov.nist.hit.core.service.edi;
+
+import gov.nist.hit.core.domain.ConformanceProfile;
+import gov.nist.hit.core.domain.Coordinate;
+import gov.nist.hit.core.domain.MessageElement;
+import gov.nist.hit.core.domain.MessageElementData;
+import gov.nist.hit.core.domain.MessageModel;
+import gov.nist.hit.core.domain.MessageParserCommand;
+import gov.nist.hit.core.domain.ProfileElement;
+import gov.nist.hit.core.domain.ProfileModel;
+import gov.nist.hit.core.edi.domain.EDITestContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Test resources of hit-core-edi-repo and helpers to compare the models built from them.
+ */
+final class Fixtures {
+
+  static final String NEWRX_PROFILE = "/profiles/NCPDP_SCRIPT_NEWRX_Profile.xml";
+  static final String NEWRX_MESSAGE_ID = "9a6c2f10-4d3b-4e8a-b1f7-2c5e8d0a6b93";
+  static final String NEWRX_CONSTRAINTS = "/constraints/NCPDP_SCRIPT_NEWRX_Constraints.xml";
+  static final String NEWRX_MESSAGE = "/messages/NEWRX.txt";
+
+  /** Message of the NEWRX profile with a repeated group */
+  static final String RXHRES_MESSAGE_ID = "3d5e7f91-6a2b-4c8d-9e0f-1a2b3c4d5e6f";
+  static final String RXHRES_MESSAGE = "/messages/RXHRES.txt";
+
+  private Fixtures() {}
+
+  static String read(String resource) throws IOException {
+    InputStream in = Fixtures.class.getResourceAsStream(resource);
+    if (in == null) {
+      throw new IOException("Fixture not found on the classpath: " + resource);
+    }
+    try {
+      return IOUtils.toString(in, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * @param profileXml
+   * @param messageId
+   * @return a test context parsing messages with the conformance profile
+   */
+  static EDITestContext testContext(String profileXml, String messageId) {
+    ConformanceProfile conformanceProfile = new ConformanceProfile();
+    conformanceProfile.setXml(profileXml);
+    conformanceProfile.setSourceId(messageId);
+    EDITestContext testContext = new EDITestContext();
+    testContext.setConformanceProfile(conformanceProfile);
+    return testContext;
+  }
+
+  static MessageParserCommand parserCommand(String content) {
+    MessageParserCommand command = new MessageParserCommand();
+    command.setContent(content);
+    return command;
+  }
+
+  /**
+   * @param model
+   * @return a text rendering of the elements of the model, equal for two models with the same
+   *         elements in the same order
+   */
+  static String describe(MessageModel model) {
+    StringBuilder sb = new StringBuilder();
+    for (MessageElement element : model.getElements()) {
+      describe(element, "", sb);
+    }
+    return sb.toString();
+  }
+
+  static void describe(MessageElement element, String indent, StringBuilder sb) {
+    describe(element, indent, sb, element.getChildren());
+  }
+
+  /**
+   * Renders an element with the given children, which may not be attached to it
+   */
+  static void describe(MessageElement element, String indent, StringBuilder sb,
+      List<MessageElement> children) {
+    MessageElementData data = element.getData();
+    sb.append(indent).append(element.getType());
+    if (data != null) {
+      sb.append('|').append(data.getType()).append('|').append(data.getPath()).append('|')
+          .append(data.getName()).append('|').append(data.getUsage()).append('|')
+          .append(data.getMinOccurs()).append('|').append(data.getMaxOccurs()).append('|')
+          .append(describe(data.getStart())).append('|').append(describe(data.getEnd()))
+          .append('|').append(data.getPosition()).append('|').append(data.getInstanceNumber())
+          .append('|').append(data.getValue());
+    }
+    sb.append('\n');
+    for (MessageElement child : children) {
+      describe(child, indent + "  ", sb);
+    }
+  }
+
+  private static String describe(Coordinate coordinate) {
+    return coordinate != null ? coordinate.getLine() + ":" + coordinate.getColumn() : "-";
+  }
+
+  /**
+   * @param model
+   * @return a text rendering of the model, equal for two models with the same elements in the
+   *         same order
+   */
+  static String describe(ProfileModel model) {
+    StringBuilder sb = new StringBuilder();
+    describe(model.getMessage(), "", sb);
+    describe(model.getSegments(), sb);
+    describe(model.getDatatypes(), sb);
+    return sb.toString();
+  }
+
+  private static void describe(Map<String, ProfileElement> elements, StringBuilder sb) {
+    if (elements == null) {
+      return;
+    }
+    for (Map.Entry<String, ProfileElement> entry : elements.entrySet()) {
+      sb.append('@').append(entry.getKey()).append('\n');
+      describe(entry.getValue(), "", sb);
+    }
+  }
+
+  static void describe(ProfileElement element, String indent, StringBuilder sb) {
+    sb.append(indent).append(element.getType()).append('|').append(element.getId()).append('|')
+        .append(element.getName()).append('|').append(element.getDescription()).append('|')
+        .append(element.getPath()).append('|').append(element.getPosition()).append('|')
+        .append(element.getUsage()).append('|').append(element.getMin()).append('|')
+        .append(element.getMax()).append('|').append(element.getMinLength()).append('|')
+        .append(element.getMaxLength()).append('|').append(element.getDatatype()).append('|')
+        .append(element.getTable()).append('|').append(element.getRef()).append('|')
+        .append(element.isRelevent()).append('|').append(element.isHide()).append('|')
+        .append(size(element.getConformanceStatements())).append('|')
+        .append(size(element.getPredicates())).append('|').append(element.getDynamicMaps())
+        .append('\n');
+    for (ProfileElement child : element.getChildren()) {
+      describe(child, indent + "  ", sb);
+    }
+  }
+
+  private static int size(List<?> list) {
+    return list != null ? list.size() : -1;
+  }
+
+}